@@ -0,0 +1,102 @@
+package com.example.blocks.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.example.blocks.cpu.CpuCost;
+import com.example.blocks.cpu.CpuStrategy;
+import com.example.blocks.cpu.EndgameSolver;
+import com.example.blocks.cpu.GreedyCpuStrategy;
+import com.example.blocks.cpu.HeuristicCpuStrategy;
+import com.example.blocks.cpu.LookaheadCpuStrategy;
+import com.example.blocks.cpu.MctsCpuStrategy;
+import com.example.blocks.engine.Board;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CPUが1手を考える時間のベンチマーク(旧 makeCpuHand に当たる)
+ *
+ * 時間で打ち切る思考ルーチンは測っても意味がないので、mcts はプレイアウト回数を固定して測る。
+ * 置換表は使わない(前の回の結果を引いてしまうため)。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CpuBenchmark {
+
+  @Param({ "early", "mid", "end" })
+  private String phase;
+
+  @Param({ "greedy", "heuristic", "lookahead", "mcts", "endgame" })
+  private String engine;
+
+  private Board board;
+  private int player;
+  private CpuStrategy strategy;
+  private EndgameSolver endgameSolver;
+  private Random random;
+
+  @Setup
+  public void setUp() {
+    board = Positions.of(phase);
+    player = Positions.toMove(phase);
+    random = new Random(1);
+    switch (engine) {
+    case "greedy":
+      strategy = new GreedyCpuStrategy();
+      break;
+    case "heuristic":
+      strategy = new HeuristicCpuStrategy();
+      break;
+    case "lookahead":
+      strategy = new LookaheadCpuStrategy();
+      break;
+    case "mcts":
+      MctsCpuStrategy mcts = new MctsCpuStrategy();
+      mcts.setThreads(1);
+      mcts.setMaxPlayouts(200);
+      mcts.setLogging(false);
+      strategy = mcts;
+      break;
+    case "endgame":
+      // 局面によらず読み切らせて、ノード数の上限までの時間を測る
+      endgameSolver = new EndgameSolver();
+      endgameSolver.setMaxPieces(Integer.MAX_VALUE);
+      endgameSolver.setLogging(false);
+      break;
+    default:
+      throw new IllegalArgumentException("unknown engine: " + engine);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (strategy instanceof MctsCpuStrategy) {
+      ((MctsCpuStrategy) strategy).shutdown();
+    }
+  }
+
+  @Benchmark
+  public int think() {
+    if (endgameSolver != null) {
+      return endgameSolver.solve(board, player, CpuCost.HIGH);
+    }
+    return strategy.think(board, player, random);
+  }
+
+}
@@ -0,0 +1,140 @@
+package com.example.blocks.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.example.blocks.engine.Board;
+import com.example.blocks.engine.Move;
+import com.example.blocks.engine.MoveGenerator;
+import com.example.blocks.engine.Orientation;
+import com.example.blocks.engine.Pieces;
+import com.example.blocks.engine.Territory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 置けるかどうかのチェック、置ける手の列挙、盤面の更新のベンチマーク
+ *
+ * 旧 GameController の checkBlock / checkOkeru / calcBlockShape に当たる処理は、今は Board#canPlace、
+ * MoveGenerator、Pieces の表になっている。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlacementBenchmark {
+
+  // canPlace で順に試す位置の数
+  private static final int PROBES = 1024;
+
+  @Param({ "early", "mid", "end" })
+  private String phase;
+
+  private Board board;
+  private Board scratch;
+  private int player;
+  private MoveGenerator generator;
+  private Territory territory;
+
+  // 置ける手と置けない手が混ざった (向き, x, y)
+  private Orientation[] orientations;
+  private int[] xs;
+  private int[] ys;
+  private int probe;
+
+  // 置ける手(placeOne で順に置く)
+  private int[] moves;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    board = Positions.of(phase);
+    scratch = new Board(board);
+    player = Positions.toMove(phase);
+    generator = new MoveGenerator();
+    territory = new Territory(board, 1);
+
+    Random random = new Random(7);
+    orientations = new Orientation[PROBES];
+    xs = new int[PROBES];
+    ys = new int[PROBES];
+    for (int i = 0; i < PROBES; i++) {
+      int type = random.nextInt(Pieces.COUNT);
+      orientations[i] = Pieces.distinct(type, random.nextInt(Pieces.distinctCount(type)));
+      xs[i] = random.nextInt(board.getWidth());
+      ys[i] = random.nextInt(board.getHeight());
+    }
+
+    int n = generator.generate(board, player);
+    moves = new int[Math.max(n, 1)];
+    for (int i = 0; i < n; i++) {
+      moves[i] = generator.getMove(i);
+    }
+    if (n == 0) {
+      moves[0] = Move.PASS;
+    }
+  }
+
+  /**
+   * 1回の置けるかどうかのチェック
+   */
+  @Benchmark
+  public boolean canPlace() {
+    int i = probe++ & (PROBES - 1);
+    return board.canPlace(player, orientations[i], xs[i], ys[i]);
+  }
+
+  /**
+   * 置ける手を全て列挙する
+   */
+  @Benchmark
+  public int generateAll() {
+    return generator.generate(board, player);
+  }
+
+  /**
+   * 置ける手が1つでもあるか(パスの判定)
+   */
+  @Benchmark
+  public boolean hasMove() {
+    return generator.hasMove(board, player);
+  }
+
+  /**
+   * 盤面をコピーして1手置く(探索での1手分)
+   */
+  @Benchmark
+  public long copyAndPlace() {
+    int move = moves[next++ % moves.length];
+    scratch.copyFrom(board);
+    if (move != Move.PASS) {
+      scratch.place(player, Move.orientation(move), Move.x(move), Move.y(move));
+    }
+    return scratch.getHash();
+  }
+
+  /**
+   * 陣地を更新しながら1手進めて戻す
+   */
+  @Benchmark
+  public int territoryApplyUndo() {
+    int move = moves[next++ % moves.length];
+    territory.apply(player, move);
+    int score = territory.score(player);
+    territory.undo();
+    return score;
+  }
+
+}
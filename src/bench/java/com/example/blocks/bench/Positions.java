@@ -0,0 +1,61 @@
+package com.example.blocks.bench;
+
+import java.util.Random;
+
+import com.example.blocks.cpu.HeuristicCpuStrategy;
+import com.example.blocks.engine.Board;
+import com.example.blocks.engine.Move;
+import com.example.blocks.engine.Variant;
+
+/**
+ * ベンチマークで使う局面
+ *
+ * 決まった乱数の種で heuristic 同士に打たせて作るので、毎回同じ局面になる。
+ */
+final class Positions {
+
+  private Positions() {
+  }
+
+  /**
+   * 序盤(8手)、中盤(40手)、終盤(68手)まで進めた局面
+   */
+  static Board of(String phase) {
+    return play(plies(phase));
+  }
+
+  /**
+   * 局面で次に打つプレイヤー
+   */
+  static int toMove(String phase) {
+    return plies(phase) % Variant.CLASSIC.getPlayerNum() + 1;
+  }
+
+  private static int plies(String phase) {
+    switch (phase) {
+    case "early":
+      return 8;
+    case "mid":
+      return 40;
+    case "end":
+      return 68;
+    default:
+      throw new IllegalArgumentException("unknown phase: " + phase);
+    }
+  }
+
+  private static Board play(int plies) {
+    Board board = new Board(Variant.CLASSIC);
+    HeuristicCpuStrategy strategy = new HeuristicCpuStrategy();
+    Random random = new Random(42);
+    for (int ply = 0; ply < plies; ply++) {
+      int player = ply % board.getPlayerNum() + 1;
+      int move = strategy.think(board, player, random);
+      if (move != Move.PASS) {
+        board.place(player, Move.orientation(move), Move.x(move), Move.y(move));
+      }
+    }
+    return board;
+  }
+
+}
@@ -0,0 +1,23 @@
+package com.example.blocks;
+
+import com.example.blocks.engine.TranspositionTable;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class CpuConfig {
+
+  // 1エントリ16バイト
+  private static final int ENTRY_BYTES = 16;
+
+  /**
+   * CPUの探索で共有する置換表
+   */
+  @Bean
+  public TranspositionTable transpositionTable(@Value("${blocks.cpu.transposition-table-mb:16}") int sizeMb) {
+    return new TranspositionTable(sizeMb * 1024 * 1024 / ENTRY_BYTES);
+  }
+
+}
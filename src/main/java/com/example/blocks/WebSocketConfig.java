@@ -12,7 +12,7 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-      config.enableSimpleBroker("/game");
+      config.enableSimpleBroker("/game", "/queue");
       config.setApplicationDestinationPrefixes("/spring-security-mvc-socket");
     }
 
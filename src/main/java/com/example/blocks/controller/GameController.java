@@ -4,72 +4,66 @@ import java.security.Principal;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
 
+import com.example.blocks.engine.Board;
+import com.example.blocks.engine.Move;
+import com.example.blocks.engine.Orientation;
+import com.example.blocks.engine.Pieces;
+import com.example.blocks.engine.Variant;
 import com.example.blocks.entity.Account;
-import com.example.blocks.entity.Block;
 import com.example.blocks.entity.Cell;
 import com.example.blocks.entity.Game;
 import com.example.blocks.entity.GameInfo;
 import com.example.blocks.entity.Hand;
+import com.example.blocks.entity.Hint;
+import com.example.blocks.entity.HintInfo;
+import com.example.blocks.entity.HintRequest;
 import com.example.blocks.entity.Kouho;
 import com.example.blocks.entity.Message;
+import com.example.blocks.entity.MoveError;
 import com.example.blocks.entity.Notification;
 import com.example.blocks.entity.Player;
 import com.example.blocks.entity.PlayerInfo;
-import com.example.blocks.entity.Record;
 import com.example.blocks.repository.AccountRepository;
-import com.example.blocks.repository.BlockRepository;
 import com.example.blocks.repository.GameRepository;
 import com.example.blocks.repository.PlayerRepository;
 import com.example.blocks.repository.RecordRepository;
 import com.example.blocks.service.Color;
+import com.example.blocks.service.CpuService;
+import com.example.blocks.service.GameLoadedEvent;
+import com.example.blocks.service.GameMailbox;
+import com.example.blocks.service.GameState;
+import com.example.blocks.service.GameStateStore;
+import com.example.blocks.service.HintService;
+import com.example.blocks.service.LegalMoveCache;
+import com.example.blocks.service.MoveValidator;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
 import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.annotation.SendToUser;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.ModelAndView;
 
 @Controller
 @RequestMapping("/game")
 public class GameController {
 
-  private final static int[][][] BLOCK_SHAPE = { { { 0, 0 }, { 0, 1 }, { 1, 0 }, { 1, 1 } }, // 0:四角
-      { { 0, 0 } }, // 1:１小竹の
-      { { 1, 0 }, { 0, 1 }, { 1, 1 }, { 2, 1 } }, // 2:逆T(短かい方)
-      { { 0, 0 }, { 1, 0 } }, // 3:２連続
-      { { 0, 0 }, { 1, 0 }, { 2, 0 }, { 3, 0 } }, // 4:４連続
-      { { 0, 0 }, { 1, 0 }, { 1, 1 } }, // 5:「の３個
-      { { 0, 1 }, { 1, 1 }, { 2, 1 }, { 2, 0 } }, // 6:「の４個
-      { { 0, 0 }, { 1, 0 }, { 2, 0 } }, // 7:３連続
-      { { 0, 1 }, { 1, 0 }, { 1, 1 }, { 2, 0 } }, // 8:半分卍(４個)
-
-      { { 0, 0 }, { 0, 1 }, { 1, 1 }, { 2, 1 }, { 3, 1 } }, // 9: 寝てる
-      { { 0, 2 }, { 1, 0 }, { 1, 1 }, { 1, 2 }, { 2, 2 } }, // 10: 逆T(長い方)
-      { { 0, 0 }, { 0, 1 }, { 0, 2 }, { 1, 2 }, { 2, 2 } }, // 11: L(５個)
-      { { 0, 1 }, { 1, 0 }, { 1, 1 }, { 2, 0 }, { 3, 0 } }, // 12: 半分卍(４個)
-      { { 0, 1 }, { 0, 2 }, { 1, 1 }, { 2, 0 }, { 2, 1 } }, // 13: Z
-      { { 0, 0 }, { 0, 1 }, { 0, 2 }, { 0, 3 }, { 0, 4 } }, // 14:５連続
-
-      { { 0, 0 }, { 0, 1 }, { 0, 2 }, { 1, 1 }, { 1, 2 } }, // 15: 下半身太
-      { { 1, 0 }, { 2, 0 }, { 0, 1 }, { 1, 1 }, { 0, 2 } }, // 16: Wみたいなの
-      { { 0, 0 }, { 1, 0 }, { 0, 1 }, { 0, 2 }, { 1, 2 } }, // 17: コの逆
-      { { 1, 0 }, { 2, 0 }, { 0, 1 }, { 1, 1 }, { 1, 2 } }, // 18: 手裏剣風
-      { { 1, 0 }, { 2, 1 }, { 0, 1 }, { 1, 1 }, { 1, 2 } }, // 19: 十字架
-      { { 1, 0 }, { 0, 1 }, { 1, 1 }, { 2, 1 }, { 3, 1 } }, // 20: トンファー
-
-  };
-
   private static final int[][] NEXT_POSITIONS = {
 
       { 0, 2 }, // 四角
@@ -105,15 +99,30 @@ public class GameController {
   @Autowired
   PlayerRepository playerRepository;
 
-  @Autowired
-  BlockRepository blockRepository;
-
   @Autowired
   RecordRepository recordRepository;
 
   @Autowired
   AccountRepository accountRepository;
 
+  @Autowired
+  GameStateStore gameStateStore;
+
+  @Autowired
+  LegalMoveCache legalMoveCache;
+
+  @Autowired
+  MoveValidator moveValidator;
+
+  @Autowired
+  CpuService cpuService;
+
+  @Autowired
+  HintService hintService;
+
+  @Autowired
+  GameMailbox gameMailbox;
+
   @Autowired
   private SimpMessagingTemplate simpMessagingTemplate;
 
@@ -154,6 +163,8 @@ public class GameController {
 
     model.addAttribute("username", principal.getName());
     model.addAttribute("accounts", accounts);
+    model.addAttribute("engines", cpuService.getStrategies());
+    model.addAttribute("variants", Variant.values());
     model.addAttribute("games", games);
     return "game/index";
   }
@@ -167,20 +178,27 @@ public class GameController {
     @RequestParam(name = "player-red", defaultValue = "") String playerRed,
     @RequestParam(name = "player-blue", defaultValue = "") String playerBlue,
     @RequestParam(name = "player-green", defaultValue = "") String playerGreen,
-    @RequestParam(name = "player-yellow", defaultValue = "") String playerYellow) {
+    @RequestParam(name = "player-yellow", defaultValue = "") String playerYellow,
+    @RequestParam(name = "engine-red", defaultValue = "") String engineRed,
+    @RequestParam(name = "engine-blue", defaultValue = "") String engineBlue,
+    @RequestParam(name = "engine-green", defaultValue = "") String engineGreen,
+    @RequestParam(name = "engine-yellow", defaultValue = "") String engineYellow,
+    @RequestParam(name = "variant", defaultValue = "CLASSIC") String variantName) {
+
+    Variant variant = Variant.of(variantName);
 
     // 現在の日時を取得
     LocalDateTime date1 = LocalDateTime.now();
     DateTimeFormatter dtformat1 = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm");
     String fdate1 = dtformat1.format(date1);
 
-    // gameテーブルにデータを新規作成
+    // gameテーブルのデータ(保存はプレイヤーとまとめて行う)
     Game g = new Game();
     g.setNowPlayer(1); // 最初はPlayer0
     g.setDate(fdate1); // 今の日時
     g.setAuthor(principal.getName());
     g.setCounter(1);    // カウンター
-    g = gameRepository.save(g);
+    g.setVariant(variant);
 
     String[] selectPlayers = new String[4];
     selectPlayers[0] = playerRed;
@@ -188,42 +206,45 @@ public class GameController {
     selectPlayers[2] = playerGreen;
     selectPlayers[3] = playerYellow;
 
+    String[] selectEngines = new String[4];
+    selectEngines[0] = engineRed;
+    selectEngines[1] = engineBlue;
+    selectEngines[2] = engineGreen;
+    selectEngines[3] = engineYellow;
+
     int cpuCounter = 1;
+    List<Player> players = new ArrayList<Player>();
 
-    // 人数分ループ
-    for (int p = 0; p < 4; p++) {
+    // 人数分ループ(2人用の盤では赤と青だけ)
+    for (int p = 0; p < variant.getPlayerNum(); p++) {
       if (selectPlayers[p].isEmpty()) {
         Player player = new Player();
-        player.setGameId(g.getId());
         player.setCpu("cpu" + cpuCounter++);
+        player.setEngine(cpuService.getStrategy(selectEngines[p]).getName());
         player.setNumber(p + 1);
         player.setPass(false);
-        player.setZanBlockCount(BLOCK_SHAPE.length);
+        player.setZanBlockCount(Pieces.COUNT);
+        player.setRemaining(Pieces.ALL);
         player.setPoint(0);
-        playerRepository.save(player);
+        players.add(player);
       } else {
         Player player = new Player();
-        player.setGameId(g.getId());
         player.setAccountName(selectPlayers[p]);
         player.setNumber(p + 1);
         player.setPass(false);
-        player.setZanBlockCount(BLOCK_SHAPE.length);
+        player.setZanBlockCount(Pieces.COUNT);
+        player.setRemaining(Pieces.ALL);
         player.setPoint(0);
-        playerRepository.save(player);
+        players.add(player);
       }
+    }
 
+    // ゲームとプレイヤーを1つのトランザクションで保存し、対局中のゲームとしてメモリに置く
+    g = gameStateStore.create(g, players);
 
-      // ブロックの数の分だけループ
-      for (int i = 0; i < BLOCK_SHAPE.length; i++) {
-        // ブロックのデータをDBに保存
-        Block block = new Block();
-        block.setBlockType(i); // ブロックの種類
-        block.setPlayer(p + 1); // プレイヤー番号(１始まり)
-        block.setGameId(g.getId()); // gameテーブルのid
-        block.setStatus(Block.STATUS_NOT_SETTED); // 状態=未セット
-        blockRepository.save(block);
-      }
-    }
+    // 最初の人がコンピュータなら考えさせる
+    int gameId = g.getId();
+    gameMailbox.submit(gameId, () -> resumeThinking(gameId));
 
     // play画面へリダイレクト
     ModelAndView modelAndView = new ModelAndView("redirect:/game/show");
@@ -238,30 +259,18 @@ public class GameController {
   @RequestMapping("/show")
   public String play(@RequestParam(name = "id", required = true, defaultValue = "0") int id, Principal principal, Model model) {
 
-    // idでgameテーブルを検索する
-    Optional<Game> ret = gameRepository.findById(id);
-    if (!ret.isPresent()) {
+    // メモリ上のゲームの状態を取得する(最初に参照されたときだけDBから読む)
+    GameState state = gameStateStore.get(id);
+    if (state == null) {
       System.out.println("ERROR! game id is not found! id=" + id);
       return "redirect:/";
     }
-    int nowPlayer = ret.get().getNowPlayer();
+    int nowPlayer = state.getNowPlayer();
     String nowPlayerColor = Color.getColor(nowPlayer);
 
 
-    // 表示用のセル配置を作成
-    String[][] cells = new String[20][20];
-    for (int y = 0; y < cells.length; y++) {
-      for (int x = 0; x < cells[y].length; x++) {
-        cells[y][x] = Color.DEFAULT;
-      }
-    }
-
-    // セット済みのブロック情報を取得
-    List<Block> settedBlocks = blockRepository.findByGameIdAndStatus(id, Block.STATUS_SETTED);
-    for (Block block : settedBlocks) {
-      drawBlock(block.getBlockType(), block.getX(), block.getY(), cells, Color.getColor(block.getPlayer()),
-          block.getAngle() == null ? 0 : block.getAngle(), block.isFlip());
-    }
+    // 盤面を取得
+    Board board = state.getBoard();
 
     // まだ置いていないブロックの配列を作成
     Cell[][] nexts = new Cell[12][23];
@@ -274,12 +283,7 @@ public class GameController {
 
 
     // プレイヤー情報を取得
-    // List<Player> players = playerRepository.findByGameIdAndNumber(ret.get().getId(), nowPlayer);
-    List<Player> players = playerRepository.findByGameId(ret.get().getId());
-    if (players == null || players.size() <= 0) {
-      System.out.println("ERROR! player number is not found! id=" + ret.get().getId() );
-      return "redirect:/";
-    }
+    List<Player> players = state.getPlayers();
 
     boolean isLoginUserPass = false;
     boolean isAllPass = true;
@@ -302,29 +306,24 @@ public class GameController {
       // ログインユーザだったら
       if (player.getAccountName() != null &&  player.getAccountName().equals(principal.getName())) {
         // 未セットのブロックを描画する
-        List<Block> notSetBlocks = blockRepository.findByGameIdAndStatusAndPlayer(id, Block.STATUS_NOT_SETTED, player.getNumber());
-        for (Block block : notSetBlocks) {
-          drawNextBlock(block, nexts, Color.getColor(block.getPlayer()));
+        for (int types = board.getRemaining(player.getNumber()); types != 0; types &= types - 1) {
+          drawNextBlock(Integer.numberOfTrailingZeros(types), nexts, Color.getColor(player.getNumber()));
         }
 
       }
 
       // 現在のプレイヤー
       if (player.getNumber() == nowPlayer) {
-        List<Block> notSetBlocks2 = blockRepository.findByGameIdAndStatusAndPlayer(id, Block.STATUS_NOT_SETTED, nowPlayer);
-
         p = player;
-        playerInfo.setBlockZansu(notSetBlocks2.size());
-        isOkeru = checkOkeru(notSetBlocks2, cells, nowPlayerColor);
+        playerInfo.setBlockZansu(Integer.bitCount(board.getRemaining(nowPlayer)));
+        isOkeru = legalMoveCache.isPass(state, nowPlayer) == false;
         isLoginUserPass = isOkeru == false;
 
       // 現在のプレイヤー意外
       } else {
 
-        List<Block> tempBlocks = blockRepository.findByGameIdAndStatusAndPlayer(id, Block.STATUS_NOT_SETTED,
-            player.getNumber());
-        playerInfo.setBlockZansu(tempBlocks.size());
-        isOkeru = checkOkeru(tempBlocks, cells, Color.getColor(player.getNumber()));
+        playerInfo.setBlockZansu(Integer.bitCount(board.getRemaining(player.getNumber())));
+        isOkeru = legalMoveCache.isPass(state, player.getNumber()) == false;
       }
       playerInfo.setColor(Color.getColorKanji(player.getNumber()));
       playerInfo.setPass(isOkeru == false);
@@ -353,11 +352,11 @@ public class GameController {
       nowPlayerName = p.getCpu();
     }
 
-    model.addAttribute("cells", cells);
+    model.addAttribute("cells", toCells(board));
     model.addAttribute("nexts", nexts);
     model.addAttribute("nowPlayer", nowPlayer);
     model.addAttribute("nowPlayerColor", nowPlayerColor);
-    model.addAttribute("id", ret.get().getId());
+    model.addAttribute("id", state.getId());
     model.addAttribute("isLoginUserNow", isLoginUserNow);
     model.addAttribute("isLoginUserPass", isLoginUserPass);
     model.addAttribute("nowPlayerName", nowPlayerName);
@@ -375,16 +374,18 @@ public class GameController {
   public String kouho(Model model, @RequestParam(name = "id", required = true, defaultValue = "0") int id,
       @RequestParam(name = "block", required = true, defaultValue = "0") int selectBlock,
       @RequestParam(name = "angle", required = false, defaultValue = "0") int angle,
-      @RequestParam(name = "flip", required = false, defaultValue = "false") boolean flip) {
+      @RequestParam(name = "flip", required = false, defaultValue = "false") boolean flip,
+      @RequestParam(name = "hint", required = false, defaultValue = "false") boolean hint) {
 
-    // idでgameテーブルを検索する
-    Optional<Game> ret = gameRepository.findById(id);
-    if (!ret.isPresent()) {
+    // メモリ上のゲームの状態を取得する(最初に参照されたときだけDBから読む)
+    GameState state = gameStateStore.get(id);
+    if (state == null) {
       System.out.println("ERROR! game id is not found! id=" + id);
       return "redirect:/";
     }
-    int nowPlayer = ret.get().getNowPlayer();
+    int nowPlayer = state.getNowPlayer();
     String nowPlayerColor = Color.getColor(nowPlayer);
+    Board board = state.getBoard();
 
     // まだ置いていないブロックの配列を作成
     Cell[][] nexts = new Cell[12][23];
@@ -393,52 +394,61 @@ public class GameController {
         nexts[y][x] = new Cell(Color.DEFAULT, 0);
       }
     }
-    List<Block> notSetBlocks = blockRepository.findByGameIdAndStatusAndPlayer(id, Block.STATUS_NOT_SETTED, nowPlayer);
-    for (Block block : notSetBlocks) {
-      String color = Color.getColor(block.getPlayer());
-      if (block.getBlockType() == selectBlock) {
-        color = Color.getKouhoColor(block.getPlayer());
+    for (int types = board.getRemaining(nowPlayer); types != 0; types &= types - 1) {
+      int blockType = Integer.numberOfTrailingZeros(types);
+      String color = Color.getColor(nowPlayer);
+      if (blockType == selectBlock) {
+        color = Color.getKouhoColor(nowPlayer);
       }
-      drawNextBlock(block, nexts, color);
+      drawNextBlock(blockType, nexts, color);
     }
 
-    // 表示用のセル配置を作成
-    String[][] cells = new String[20][20];
-    for (int y = 0; y < cells.length; y++) {
-      for (int x = 0; x < cells[y].length; x++) {
-        cells[y][x] = Color.DEFAULT;
-      }
-    }
+    // 盤面を表示用に変換
+    String[][] cells = toCells(board);
+
+    // 置ける手の中から選択中の向きのものを選び、上の行から順に並べる
+    Orientation orientation = Pieces.get(selectBlock, angle, flip);
+    int[] positions = legalMoveCache.get(state, nowPlayer).stream()
+        .filter(hand -> hand.getBlockType() == selectBlock && hand.getAngle() == orientation.getAngle()
+            && hand.isFlip() == orientation.isFlip())
+        .mapToInt(hand -> hand.getY() * board.getWidth() + hand.getX())
+        .sorted()
+        .toArray();
 
-    // セット済みのブロック情報を取得
-    List<Block> settedBlocks = blockRepository.findByGameIdAndStatus(id, Block.STATUS_SETTED);
-    for (Block block : settedBlocks) {
-      drawBlock(block.getBlockType(), block.getX(), block.getY(), cells, Color.getColor(block.getPlayer()),
-          block.getAngle() == null ? 0 : block.getAngle(), block.isFlip());
+    // ヒントを表示する場合は、選択中のブロックと向きのヒントを探しておく
+    List<Hint> hints = new ArrayList<Hint>();
+    if (hint) {
+      hints = hintInfo(state, HintService.MAX_COUNT, 0).getHints();
     }
 
     // 置ける場所の候補リスト
     List<Kouho> kouhoList = new ArrayList<Kouho>(); // 置ける場所の候補リスト
-    for (int y = 0; y < cells.length; y++) {
-      for (int x = 0; x < cells[y].length; x++) {
-        if (checkBlock(selectBlock, x, y, cells, nowPlayerColor, angle, flip)) {
+    for (int position : positions) {
+      int x = position % board.getWidth();
+      int y = position / board.getWidth();
 
-          // 候補用の色を取得
-          String color = Color.getKouhoColor(nowPlayer);
+      // 候補用の色を取得
+      String color = Color.getKouhoColor(nowPlayer);
 
-          // ここに置いた場合の絵を書く
-          String[][] cells2 = new String[20][20];
-          for (int i = 0; i < cells.length; i++) {
-            cells2[i] = cells[i].clone();
-          }
+      // ここに置いた場合の絵を書く
+      String[][] cells2 = new String[cells.length][];
+      for (int i = 0; i < cells.length; i++) {
+        cells2[i] = cells[i].clone();
+      }
 
-          drawBlock(selectBlock, x, y, cells2, color, angle, flip);
+      drawBlock(selectBlock, x, y, cells2, color, angle, flip);
 
-          // 候補をリストに追加
-          Kouho kouho = new Kouho(x, y, cells2);
-          kouhoList.add(kouho);
+      // 候補をリストに追加
+      Kouho kouho = new Kouho(x, y, cells2);
+      for (int rank = 0; rank < hints.size(); rank++) {
+        Hint h = hints.get(rank);
+        if (h.getBlockType() == selectBlock && h.getAngle() == orientation.getAngle()
+            && h.isFlip() == orientation.isFlip() && h.getX() == x && h.getY() == y) {
+          kouho.setHintRank(rank + 1);
+          kouho.setHintScore(h.getScore());
         }
       }
+      kouhoList.add(kouho);
     }
 
     model.addAttribute("nexts", nexts);
@@ -447,12 +457,50 @@ public class GameController {
     model.addAttribute("angle", angle);
     model.addAttribute("nowPlayer", nowPlayer);
     model.addAttribute("nowPlayerColor", nowPlayerColor);
-    model.addAttribute("id", ret.get().getId());
+    model.addAttribute("id", state.getId());
     model.addAttribute("flip", flip);
+    model.addAttribute("hint", hint);
 
     return "game/kouho";
   }
 
+  /**
+   * 手番のプレイヤーへのヒント(評価値の高い順)
+   */
+  @GetMapping("/hint")
+  @ResponseBody
+  public HintInfo hint(@RequestParam(name = "id", required = true, defaultValue = "0") int id,
+      @RequestParam(name = "count", required = false, defaultValue = "3") int count,
+      @RequestParam(name = "budgetMs", required = false, defaultValue = "0") long budgetMs) {
+
+    // メモリ上のゲームの状態を取得する
+    GameState state = gameStateStore.get(id);
+    if (state == null) {
+      System.out.println("ERROR! game id is not found! id=" + id);
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "game id is not found: " + id);
+    }
+    return hintInfo(state, count, budgetMs);
+  }
+
+  /**
+   * 手番のプレイヤーへのヒント(STOMP版)。結果は要求した人の /user/queue/hint に返す
+   *
+   * ゲームがなければ手を受け付けなかったときと同じく /user/queue/errors に通知する。
+   */
+  @MessageMapping("/hint")
+  @SendToUser("/queue/hint")
+  public HintInfo hintByJs(HintRequest request, @Header("simpSessionId") String sessionId) {
+
+    // メモリ上のゲームの状態を取得する
+    GameState state = gameStateStore.get(request.getId());
+    if (state == null) {
+      System.out.println("ERROR! game id is not found! id=" + request.getId());
+      sendError(sessionId, new MoveError(request.getId(), MoveError.Reason.GAME_NOT_FOUND, null));
+      return null;
+    }
+    return hintInfo(state, request.getCount() > 0 ? request.getCount() : 3, request.getBudgetMs());
+  }
+
   /**
    * ブロックを置いたアクション
    */
@@ -550,388 +598,244 @@ public class GameController {
   @MessageMapping("/oku")
   public String okuByJs(Message message, Principal principal, @Header("simpSessionId") String sessionId) throws Exception {
 
-    // idでgameテーブルを検索する
-    Optional<Game> ret = gameRepository.findById(message.getId());
-    if (!ret.isPresent()) {
-      System.out.println("ERROR! game id is not found! id=" + message.getId());
-      // return new ModelAndView("redirect:/");
-    }
-    Game game = ret.get();
-
-    // プレイヤーの情報
-    List<Player> players = playerRepository.findByGameIdAndNumber(message.getId(), game.getNowPlayer());
-    if (players == null || players.size() <= 0) {
-      System.out.println("ERROR! player is not found! message.getId()=" + message.getId() + ", number=" + game.getNowPlayer());
-      // return new ModelAndView("redirect:/");
-    }
-    Player player = players.get(0);
-
-    // 現在操作中のプレイヤーの選択ブロックを取得
-    if (message.isPass() == false) {
-      setBlock(message.getId(), player, message.getSelectBlock(), message.getX(), message.getY(), message.getAngle());
-
-    } else {
-      // 初めてのパスの時は保存する
-      if (player.isPass() == false) {
-        player.setPass(true);
-        playerRepository.save(player);
-      }
-    }
-
-    // 記録をつける
-    Record record = new Record();
-    record.setGameId(game.getId());
-    record.setNumber(game.getCounter());
-    record.setBlockType(message.getSelectBlock());
-    record.setX(message.getX());
-    record.setY(message.getY());
-    record.setAngle(message.getAngle());
-    record.setPass(message.isPass());
-    recordRepository.save(record);
-
-    // 次のプレイヤーに移動
-    for (int i = 0; i < 4; i++) {
-      game.goNextPlayer();
-      gameRepository.save(game);
-
-      // ゲームに参加している全メンバーへ通知する
-      Notification notification =  new Notification("HelloHello");
-      simpMessagingTemplate.convertAndSend("/game/" + game.getId() + "/notification", notification);
-
-      // 次のプレイヤー
-      List<Player> nextPlayers = playerRepository.findByGameIdAndNumber(message.getId(), game.getNowPlayer());
-      if (nextPlayers == null || nextPlayers.size() <= 0) {
-        System.out.println("ERROR! player is not found! message.getId()=" + message.getId() + ", number=" + game.getNowPlayer());
-        // return new ModelAndView("redirect:/");
-        continue;
-      }
-      Player nextPlayer = nextPlayers.get(0);
+    // 同じゲームの手は受け付けた順に1つずつ処理する(違うゲームは並列)
+    gameMailbox.submit(message.getId(), () -> oku(message, principal, sessionId));
+    return "success notification";
+  }
 
-      // 次の人が手詰まり状態なら飛ばす
-      if (nextPlayer.isPass()) {
-        continue;
-      }
+  /**
+   * DBから読み直したゲームがCPUの番なら考え直させる(取り消した手や再起動で考えていた手がなくなるため)
+   */
+  @EventListener
+  public void onGameLoaded(GameLoadedEvent event) {
+    int gameId = event.getGameId();
+    gameMailbox.submit(gameId, () -> resumeThinking(gameId));
+  }
 
-      // 次の人がコンピュータの場合
-      if (nextPlayer.getCpu() != null && nextPlayer.getCpu().isEmpty() == false) {
-        // CPUの手番の場合は、CPUの手を作成
-        List<Block> notSetBlocks3 = blockRepository.findByGameIdAndStatusAndPlayer(game.getId(), Block.STATUS_NOT_SETTED, nextPlayer.getNumber());
-
-        // 表示用のセル配置を作成
-        String[][] cells = new String[20][20];
-        for (int y = 0; y < cells.length; y++) {
-          for (int x = 0; x < cells[y].length; x++) {
-            cells[y][x] = Color.DEFAULT;
-          }
-        }
 
-        // セット済みのブロック情報を取得
-        List<Block> settedBlocks = blockRepository.findByGameIdAndStatus(game.getId(), Block.STATUS_SETTED);
-        for (Block block : settedBlocks) {
-          drawBlock(block.getBlockType(), block.getX(), block.getY(), cells, Color.getColor(block.getPlayer()),
-              block.getAngle() == null ? 0 : block.getAngle());
-        }
 
-        // CPUの手を考える
-        Hand hand = makeCpuHand(cells, notSetBlocks3, nextPlayer.getCpu(), Color.getColor(nextPlayer.getNumber()));
+  // --- Private Methods --------------------------------
 
-        Thread.sleep(2000); // simulated delay
+  /**
+   * 送られてきた手を置き、次のプレイヤーに手番を移す。ゲームのメールボックスの中で呼ぶ
+   */
+  private void oku(Message message, Principal principal, String sessionId) {
 
-        // ブロックを置く
-        setBlock(game.getId(), nextPlayer, hand.getBlockType(), hand.getX(), hand.getY(), hand.getAngle());
+    // メモリ上のゲームの状態を取得する
+    GameState state = gameStateStore.get(message.getId());
+    if (state == null) {
+      reject(sessionId, message, MoveError.Reason.GAME_NOT_FOUND);
+      return;
+    }
+    Game game = state.getGame();
+    Player player = state.getPlayer(game.getNowPlayer());
 
+    // 送ってきた人の手番で、置ける手かどうかを保存する前に確かめる
+    MoveError.Reason reason = moveValidator.validate(state, message, principal);
+    if (reason != null) {
+      reject(sessionId, message, reason);
+      return;
+    }
 
+    play(game.getId(), () -> {
+      // 現在操作中のプレイヤーの選択ブロックを置く(記録もつける)
+      if (message.isPass() == false) {
+        gameStateStore.place(game.getId(), player.getNumber(), message.getSelectBlock(), message.getAngle(),
+            message.isFlip(), message.getX(), message.getY());
       } else {
-        // 次の人が人の場合はループを抜ける
-        break;
+        // 初めてのパスの時は保存する
+        gameStateStore.pass(game.getId(), player.getNumber());
       }
-
-    }
-
-
-
-    return "success notification";
+      return goNextPlayer(game);
+    });
   }
 
-
-
-  // --- Private Methods --------------------------------
-
-  /***
-   * ブロックを90度回転、反転させるメソッド
+  /**
+   * 考え終わったCPUの手を置き、次のプレイヤーに手番を移す。ゲームのメールボックスの中で呼ぶ
    *
-   * @param oldShape 選択されたブロック
-   * @param angle 角度
-   * @param flip 反転するかどうか
-   * @return 90度回転、もしくは反転したブロックの形
+   * 考えている間にゲームが変わっていたら(取り消されたなど)何もしない。
    */
-  private int[][] calcBlockShape(int[][] oldShape, int angle, boolean flip) {
-    if (angle == 0 && flip == false) {
-      return oldShape;
-    }
-    String[][] cells = new String[5][5];
-    String[][] cells2 = new String[5][5];
-
-    // まず、左上を始点として角度なしで描く
-    drawBlock(oldShape, 0, 0, cells, "ZZZ");
-
-    for (int a = 0; a < angle; a++) {
-      // 90度回転
-      for (int x = 0; x < 5; x++) {
-        for (int y = 0; y < 5; y++) {
-          cells2[y][x] = cells[5 - 1 - x][y];
-        }
-      }
-
-
-
-      // cells2 -> cells
-      for (int x = 0; x < 5; x++) {
-        cells[x] = cells2[x].clone();
+  private void okuCpu(int gameId, int counter, int number, long hash, Hand thought) {
+    GameState state = gameStateStore.get(gameId);
+    if (state == null || state.getCounter() != counter || state.getNowPlayer() != number
+        || state.getBoard().getHash() != hash) {
+      System.out.println("WARN! cpu hand is discarded! id=" + gameId + ", counter=" + counter + ", player=" + number);
+      return;
+    }
+    Game game = state.getGame();
+    Player player = state.getPlayer(number);
+
+    play(gameId, () -> {
+      Hand hand = thought;
+      // パスすると以後は打てないので、置ける手があるのにパスしてきたら置ける手の先頭を打つ
+      if (hand.isPass() && !legalMoveCache.isPass(state, number)) {
+        System.out.println("WARN! cpu passed with legal moves! id=" + gameId + ", player=" + number + ", cpu="
+            + player.getCpu());
+        hand = legalMoveCache.get(state, number).get(0);
+      }
+
+      if (hand.isPass()) {
+        // 打つ手がなければパス
+        gameStateStore.pass(gameId, number);
+      } else {
+        // ブロックを置く
+        gameStateStore.place(gameId, number, hand.getBlockType(), hand.getAngle(), hand.isFlip(), hand.getX(),
+            hand.getY());
       }
+      return goNextPlayer(game);
+    });
+  }
 
+  /**
+   * メモリだけを変える change を行い、変えた分を1つのトランザクションで書く
+   *
+   * 参加者への通知とCPUに考えさせるのは書けてから(書けなかった手を見せたり、それに続けて考えさせたりしない)。
+   * change は手番を移したあとの状態を返す。
+   */
+  private void play(int gameId, Supplier<GameState> change) {
+    GameState next;
+    try {
+      next = change.get();
+      gameStateStore.commit(gameId);
+    } catch (RuntimeException e) {
+      // 途中で失敗したら取り消す(DBから読み直したときにCPUの番なら考え直させる)
+      gameStateStore.discard(gameId);
+      legalMoveCache.invalidate(gameId);
+      hintService.invalidate(gameId);
+      notifyPlayers(gameId);
+      throw e;
+    }
+    notifyPlayers(gameId);
+    if (next != null) {
+      startThinking(next);
     }
+  }
 
-    // 反転flgがあれば、反転させる
-    if (flip) {
-      for (int x = 0; x < 5; x++) {
-        for (int y = 0; y < 5; y++) {
-          cells2[y][x] = cells[y][4 - x];
-        }
-      }
-       // cells2 -> cells
-       for (int x = 0; x < 5; x++) {
-        cells[x] = cells2[x].clone();
-      }
-    }
-
-    int[][] shape = new int[oldShape.length][2];
+  /**
+   * 手番を次の人に移す(手詰まりの人は飛ばす)。移したあとの状態を返す
+   */
+  private GameState goNextPlayer(Game game) {
+    GameState state = null;
+    for (int i = 0; i < game.getVariant().getPlayerNum(); i++) {
+      state = gameStateStore.goNextPlayer(game.getId());
 
-    // ZZZ が入っている座標だけを抜き出す
-    int i = 0;
-    for (int y = 0; y < 5; y++) {
-      for (int x = 0; x < 5; x++) {
-        if (cells2[y][x] != null && cells2[y][x].equals("ZZZ")) {
-          shape[i][0] = x;
-          shape[i][1] = y;
-          i++;
-        }
+      // 次の人が手詰まり状態でなければ決まり
+      if (state.getPlayer(state.getNowPlayer()).isPass() == false) {
+        break;
       }
     }
+    return state;
+  }
 
-    // x、yの最小値を調べる
-    int minX = 99, minY = 99;
-    for (i = 0; i < oldShape.length; i++) {
-      if (shape[i][0] < minX) {
-        minX = shape[i][0];
-      }
-      if (shape[i][1] < minY) {
-        minY = shape[i][1];
-      }
-    }
-    // 最小値が０じゃない場合はずれてるので、最小値が０になるようずらす
-    for (i = 0; i < oldShape.length; i++) {
-      if (minX > 0) {
-        shape[i][0] -= minX;
-      }
-      if (minY > 0) {
-        shape[i][1] -= minY;
-      }
+  /**
+   * 今の状態のゲームをメールボックスの中で読み、CPUの番なら考えさせる
+   */
+  private void resumeThinking(int gameId) {
+    GameState state = gameStateStore.get(gameId);
+    if (state != null) {
+      startThinking(state);
     }
+  }
 
-
-    return shape;
+  /**
+   * CPUの番なら別のスレッドで考えさせ、考え終わったらその手をゲームのメールボックスに入れる
+   * (メールボックスのスレッドでは待たない)
+   */
+  private void startThinking(GameState state) {
+    Player player = state.getPlayer(state.getNowPlayer());
+    if (player.isPass() || player.getCpu() == null || player.getCpu().isEmpty()) {
+      return;
+    }
+
+    // CPUの手を考える(軽いCPUは blocks.cpu.min-think-ms まで待つ)。考えられなかったときはパスとして渡す
+    int gameId = state.getId();
+    int counter = state.getCounter();
+    int number = player.getNumber();
+    long hash = state.getBoard().getHash();
+    cpuService.think(state.getBoard(), player).exceptionally(e -> {
+      System.out.println("ERROR! cpu think failed! id=" + gameId + ", player=" + number + ", " + e);
+      return Move.toHand(Move.PASS);
+    }).thenAccept(hand -> gameMailbox.submit(gameId, () -> okuCpu(gameId, counter, number, hash, hand)));
   }
 
   /**
-   * ブロックの色表示
+   * ゲームに参加している全メンバーへ通知する
    */
-  private void drawBlock(int index, int x, int y, String[][] cells, String color, int angle, boolean flip) {
-    int[][] block = BLOCK_SHAPE[index];
-    block = calcBlockShape(block, angle, flip);
+  private void notifyPlayers(int gameId) {
+    Notification notification =  new Notification("HelloHello");
+    simpMessagingTemplate.convertAndSend("/game/" + gameId + "/notification", notification);
+  }
 
-    drawBlock(block, x, y, cells, color);
+  /**
+   * 手を受け付けなかったことを、送ってきたセッションだけに通知する(/user/queue/errors)
+   */
+  private void reject(String sessionId, Message message, MoveError.Reason reason) {
+    System.out.println("REJECT! " + reason + ": " + message + ", session=" + sessionId);
+    sendError(sessionId, new MoveError(message.getId(), reason, message));
   }
 
-  private void drawBlock(int[][] block, int x, int y, String[][] cells, String color) {
-    for (int[] position : block) {
-      cells[y + position[1]][x + position[0]] = color;
-    }
+  /**
+   * 送ってきたセッションだけにエラーを通知する(/user/queue/errors)
+   */
+  private void sendError(String sessionId, MoveError error) {
+    SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+    headers.setSessionId(sessionId);
+    headers.setLeaveMutable(true);
+    simpMessagingTemplate.convertAndSendToUser(sessionId, "/queue/errors", error, headers.getMessageHeaders());
   }
 
   /**
-   * ブロック候補の表示
+   * 手番のプレイヤーへのヒントを作る。パス済みなら空
    */
-  private void drawNextBlock(Block block, Cell[][] cells, String color) {
-    int index = block.getBlockType();
-    int x = NEXT_POSITIONS[block.getBlockType()][0];
-    int y = NEXT_POSITIONS[block.getBlockType()][1];
-    Cell cell = new Cell(color, block.getBlockType());
-    for (int[] position : BLOCK_SHAPE[index]) {
-      cells[y + position[1]][x + position[0]] = cell;
-    }
+  private HintInfo hintInfo(GameState state, int count, long budgetMs) {
+    if (state.getPlayer(state.getNowPlayer()).isPass()) {
+      HintInfo info = new HintInfo();
+      info.setId(state.getId());
+      info.setCounter(state.getCounter());
+      info.setPlayer(state.getNowPlayer());
+      info.setHints(new ArrayList<Hint>());
+      return info;
+    }
+    return hintService.get(state, count, budgetMs);
   }
 
   /**
-   * ブロックを置けるかどうかのチェック
+   * ブロックの色表示
    */
-  private boolean checkBlock(int index, int x, int y, String[][] cells, String color, int angle, boolean flip) {
-    int[][] block = BLOCK_SHAPE[index];
-    block = calcBlockShape(block, angle, flip);
-    boolean isCheck = false;
+  private void drawBlock(int index, int x, int y, String[][] cells, String color, int angle, boolean flip) {
+    drawBlock(Pieces.get(index, angle, flip).getCells(), x, y, cells, color);
+  }
 
+  private void drawBlock(int[][] block, int x, int y, String[][] cells, String color) {
     for (int[] position : block) {
-      int newY = y + position[1];
-      int newX = x + position[0];
-
-      // はみ出てたらダメ！
-      if (cells.length <= newY) {
-        return false;
-      }
-      if (cells[newY].length <= newX) {
-        return false;
-      }
-
-      // すでにあってもダメ！
-      if (cells[newY][newX].equals(Color.DEFAULT) == false) {
-        return false;
-      }
-
-      // 右隣が同じ色ならダメ
-      if (newX < cells[newY].length - 1 && cells[newY][newX + 1].equals(color)) {
-        return false;
-      }
-      // 左隣が同じ色ならダメ
-      if (newX > 0 && cells[newY][newX - 1].equals(color)) {
-        return false;
-      }
-      // 下隣が同じ色ならダメ
-      if (newY < cells.length - 1 && cells[newY + 1][newX].equals(color)) {
-        return false;
-      }
-      // 上隣が同じ色ならダメ
-      if (newY > 0 && cells[newY - 1][newX].equals(color)) {
-        return false;
-      }
-
-      // 右上が同じ色ならOK
-      if (newY > 0 && newX < cells[newY].length - 1 && cells[newY - 1][newX + 1].equals(color)) {
-        isCheck = true;
-      }
-
-      // 左上が同じ色ならOK
-      if (newY > 0 && newX > 0 && cells[newY - 1][newX - 1].equals(color)) {
-        isCheck = true;
-      }
-
-      // 右下が同じ色ならOK
-      if (newY < cells.length - 1 && newX < cells[newY].length - 1 && cells[newY + 1][newX + 1].equals(color)) {
-        isCheck = true;
-      }
-
-      // 左下が同じ色ならOK
-      if (newY < cells.length - 1 && newX > 0 && cells[newY + 1][newX - 1].equals(color)) {
-        isCheck = true;
-      }
-
-      // 四角を踏んでてらOK
-      if ((newX == 0 && newY == 0) || (newX == 0 && newY == cells[newY].length - 1)
-          || (newX == cells.length - 1 && newY == 0) || (newX == cells.length - 1 && newY == cells[newY].length - 1)) {
-        isCheck = true;
-      }
+      cells[y + position[1]][x + position[0]] = color;
     }
-    return isCheck;
   }
 
   /**
-   * CPUの手を作る
+   * 盤面を表示用のセル配置に変換する
    */
-  private Hand makeCpuHand(String[][] cells, List<Block> notSetBlocks, String cpuName, String color) {
-    Hand hand = new Hand();
-
-    // まずブロックのセル数が多い順に並べる
-    Collections.sort(
-      notSetBlocks,
-      new Comparator<Block>() {
-        @Override
-        public int compare(Block b1, Block b2) {
-          return BLOCK_SHAPE[b2.getBlockType()].length - BLOCK_SHAPE[b1.getBlockType()].length;
-        }
-      }
-    );
-
-    for (Block block : notSetBlocks) {
-
-      // 全部のセルをチェックしていく
-      for (int y = 0; y < cells.length; y++) {
-        for (int x = 0; x < cells[y].length; x++) {
-
-          // 回転させてチェックする
-          for (int angle = 0; angle < 4; angle++) {
-            for (int i = 0; i < 2; i++) {
-              // チェック
-              if (checkBlock(block.getBlockType(), x, y, cells, color, angle, (i == 1))) {
-                hand.setX(x);
-                hand.setY(y);
-                hand.setBlockType(block.getBlockType());
-                hand.setAngle((angle));
-                return hand;
-              }
-            }
-          }
-        }
+  private String[][] toCells(Board board) {
+    String[][] cells = new String[board.getHeight()][board.getWidth()];
+    for (int y = 0; y < cells.length; y++) {
+      for (int x = 0; x < cells[y].length; x++) {
+        int owner = board.getOwner(x, y);
+        cells[y][x] = owner == 0 ? Color.DEFAULT : Color.getColor(owner);
       }
     }
-
-    // 打つ手なし
-    hand.setPass(true);
-
-    return hand;
+    return cells;
   }
 
   /**
-   * 置けるブロックがあるかどうか
+   * ブロック候補の表示
    */
-  private boolean checkOkeru(List<Block> notSetBlocks, String[][] cells, String color) {
-    for (int b = 0; b < notSetBlocks.size(); b++) {
-      for (int y = 0; y < cells.length; y++) {
-        for (int x = 0; x < cells[y].length; x++) {
-          for (int angle = 0; angle < 4; angle++) {
-            for (int i = 0; i < 2; i++) {
-              if (checkBlock(notSetBlocks.get(b).getBlockType(), x, y, cells, color, angle, (i == 1))) {
-                return true;
-              }
-            }
-          }
-        }
-      }
+  private void drawNextBlock(int blockType, Cell[][] cells, String color) {
+    int x = NEXT_POSITIONS[blockType][0];
+    int y = NEXT_POSITIONS[blockType][1];
+    Cell cell = new Cell(color, blockType);
+    for (int[] position : Pieces.get(blockType, 0, false).getCells()) {
+      cells[y + position[1]][x + position[0]] = cell;
     }
-    return false;
-  }
-
-  private void setBlock(int gameId, Player player, int selectBlock, int x, int y, int angle) {
-    List<Block> blocks = blockRepository.findByGameIdAndPlayerAndBlockType(gameId, player.getNumber(), selectBlock);
-      if (blocks == null || blocks.size() <= 0) {
-        System.out.println("ERROR! selectBlock is not found! selectBlock=" + selectBlock);
-        // return new ModelAndView("redirect:/");
-      }
-      Block block = blocks.get(0);
-      if (block.getStatus() == Block.STATUS_NOT_SETTED) { // まだセットされていない場合のみ
-        block.setStatus(Block.STATUS_SETTED);
-        block.setX(x);
-        block.setY(y);
-        block.setAngle(angle);
-        blockRepository.save(block);
-
-        // ポイント(置いたブロックのセル数)を加算する
-        int point = BLOCK_SHAPE[selectBlock].length + player.getPoint();
-
-        // 残数を減らす、ポイントを増やす
-        player.setZanBlockCount(player.getZanBlockCount()  - 1);
-        player.setPoint(point);
-        player.setPass(player.getZanBlockCount() == 0);
-        playerRepository.save(player);
-      }
   }
 
 }
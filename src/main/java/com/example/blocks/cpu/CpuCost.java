@@ -0,0 +1,13 @@
+package com.example.blocks.cpu;
+
+/**
+ * CPUが1手考えるのにかかる計算コストの目安
+ */
+public enum CpuCost {
+  /** 数ミリ秒。混んでいるサーバでも使える */
+  LOW,
+  /** 数十ミリ秒 */
+  MEDIUM,
+  /** 数百ミリ秒〜秒単位。CPUに余裕のあるサーバ向け */
+  HIGH
+}
@@ -0,0 +1,35 @@
+package com.example.blocks.cpu;
+
+import java.util.Random;
+
+import com.example.blocks.engine.Board;
+
+/**
+ * CPUの思考ルーチン
+ *
+ * 実装は Spring のコンポーネントとして登録し、getName() の名前でプレイヤーごとに選ぶ。
+ * 複数のゲームから同時に呼ばれるので、状態を持つ場合はスレッドセーフにすること。
+ */
+public interface CpuStrategy {
+
+  /**
+   * 名前(Player.engine に保存する値)
+   */
+  String getName();
+
+  /**
+   * 1手あたりの計算コストの目安
+   */
+  CpuCost getCost();
+
+  /**
+   * 手を考える
+   *
+   * @param board 盤面(書き換えてよい)
+   * @param player 手番のプレイヤー番号(1始まり)
+   * @param random 乱数(同じ乱数を渡せば同じ手になるように使うこと)
+   * @return 置く手(Move の値)。置ける手がなければ Move.PASS
+   */
+  int think(Board board, int player, Random random);
+
+}
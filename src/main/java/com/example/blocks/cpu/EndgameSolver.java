@@ -0,0 +1,182 @@
+package com.example.blocks.cpu;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.example.blocks.engine.Board;
+import com.example.blocks.engine.Move;
+import com.example.blocks.engine.MoveGenerator;
+import com.example.blocks.engine.Pieces;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 終盤の読み切り
+ *
+ * 残りのブロックが少ないか、自分が置ける領域が狭くなったら、相手がこれ以上置かないものとして
+ * 残りのブロックの置き方を全部調べ、最後に取れるセル数(ポイント)が一番多くなる手を選ぶ。
+ * 同じ局面は(使ったブロックも含む)ハッシュでメモして使い回す。
+ * 調べた局面の数が上限を超えたら諦めて、普段の思考ルーチンに任せる。
+ * 上限は思考ルーチンの重さで変える(軽いCPUは読み切らず、中くらいのCPUは blocks.cpu.endgame.node-budget の 1/10)。
+ */
+@Component
+public class EndgameSolver {
+
+  /** 読み切れなかったときの戻り値 */
+  public static final int UNSOLVED = Integer.MIN_VALUE;
+
+  @Value("${blocks.cpu.endgame.max-pieces:4}")
+  private int maxPieces = 4;
+
+  @Value("${blocks.cpu.endgame.max-region:24}")
+  private int maxRegion = 24;
+
+  // 重い(HIGH)CPUが調べる局面の数の上限
+  @Value("${blocks.cpu.endgame.node-budget:100000}")
+  private int nodeBudget = 100000;
+
+  // 中くらい(MEDIUM)のCPUはこの分の1だけ調べる
+  private static final int MEDIUM_BUDGET_DIVISOR = 10;
+
+  // 1手ごとに探索の様子を出力するか
+  private boolean logging = true;
+
+  public void setMaxPieces(int maxPieces) {
+    this.maxPieces = maxPieces;
+  }
+
+  public void setMaxRegion(int maxRegion) {
+    this.maxRegion = maxRegion;
+  }
+
+  public void setNodeBudget(int nodeBudget) {
+    this.nodeBudget = nodeBudget;
+  }
+
+  public void setLogging(boolean logging) {
+    this.logging = logging;
+  }
+
+  /**
+   * 読み切りを使う局面かどうか
+   */
+  public boolean applies(Board board, int player) {
+    return Integer.bitCount(board.getRemaining(player)) <= maxPieces || board.countReachable(player) <= maxRegion;
+  }
+
+  /**
+   * 読み切って一番よい手を返す。置けなければ Move.PASS、読み切りを使わない局面か
+   * 上限までに読み切れなければ UNSOLVED
+   *
+   * @param cost 手番の思考ルーチンの重さ(LOW なら読み切らない)
+   */
+  public int solve(Board board, int player, CpuCost cost) {
+    int budget = budget(cost);
+    if (budget <= 0 || !applies(board, player)) {
+      return UNSOLVED;
+    }
+    return new Search(board, player, budget).run();
+  }
+
+  private int budget(CpuCost cost) {
+    switch (cost) {
+    case HIGH:
+      return nodeBudget;
+    case MEDIUM:
+      return nodeBudget / MEDIUM_BUDGET_DIVISOR;
+    default:
+      return 0;
+    }
+  }
+
+  /**
+   * 1回の読み切りの状態。盤面と手のリストは深さごとに用意する
+   */
+  private final class Search {
+    private final int player;
+    private final int budget;
+    private final Board[] boards = new Board[Pieces.COUNT + 1];
+    private final MoveGenerator[] generators = new MoveGenerator[Pieces.COUNT];
+    private final Map<Long, Integer> memo = new HashMap<Long, Integer>();
+
+    private int nodes;
+    private boolean aborted;
+    private int bestMove = Move.PASS;
+
+    Search(Board board, int player, int budget) {
+      this.player = player;
+      this.budget = budget;
+      this.boards[0] = new Board(board);
+    }
+
+    int run() {
+      int value = search(0);
+      if (aborted) {
+        return UNSOLVED;
+      }
+      if (logging && bestMove != Move.PASS) {
+        System.out.println(String.format("endgame: player=%d, points=+%d, nodes=%d", player, value, nodes));
+      }
+      return bestMove;
+    }
+
+    /**
+     * この局面からさらに取れるセル数の最大
+     */
+    private int search(int ply) {
+      Board board = boards[ply];
+      Integer known = memo.get(board.getHash());
+      if (known != null) {
+        return known;
+      }
+      if (++nodes > budget) {
+        aborted = true;
+        return 0;
+      }
+
+      // 残りのブロックのセル数と置ける領域の広さより多くは取れない
+      int remaining = board.getRemaining(player);
+      int bound = 0;
+      for (int type = 0; type < Pieces.COUNT; type++) {
+        if ((remaining & (1 << type)) != 0) {
+          bound += Pieces.size(type);
+        }
+      }
+      bound = Math.min(bound, board.countReachable(player));
+
+      if (generators[ply] == null) {
+        generators[ply] = new MoveGenerator();
+        boards[ply + 1] = new Board(board);
+      }
+      MoveGenerator generator = generators[ply];
+      int n = generator.generate(board, player);
+
+      // 大きいブロックから試す
+      int best = 0;
+      for (int size = 5; size > 0 && best < bound; size--) {
+        for (int i = 0; i < n && best < bound; i++) {
+          int move = generator.getMove(i);
+          if (Pieces.size(Move.blockType(move)) != size) {
+            continue;
+          }
+          boards[ply + 1].copyFrom(board);
+          boards[ply + 1].place(player, Move.orientation(move), Move.x(move), Move.y(move));
+          int value = size + search(ply + 1);
+          if (aborted) {
+            return 0;
+          }
+          if (value > best) {
+            best = value;
+            if (ply == 0) {
+              bestMove = move;
+            }
+          }
+        }
+      }
+      memo.put(board.getHash(), best);
+      return best;
+    }
+  }
+
+}
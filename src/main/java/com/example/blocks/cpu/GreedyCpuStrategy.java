@@ -0,0 +1,42 @@
+package com.example.blocks.cpu;
+
+import java.util.Random;
+
+import com.example.blocks.engine.Board;
+import com.example.blocks.engine.Move;
+import com.example.blocks.engine.MoveGenerator;
+import com.example.blocks.engine.Pieces;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * セル数が多いブロックから順に、最初に見つかった置ける手を選ぶCPU
+ *
+ * 見つけるのは置換表を引くのと変わらないくらい軽いので、置換表は使わない。
+ */
+@Component
+public class GreedyCpuStrategy implements CpuStrategy {
+
+  public static final String NAME = "greedy";
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public CpuCost getCost() {
+    return CpuCost.LOW;
+  }
+
+  @Override
+  public int think(Board board, int player, Random random) {
+    MoveGenerator generator = new MoveGenerator();
+    int move = Move.PASS;
+    for (int size = 5; size > 0 && move == Move.PASS; size--) {
+      move = generator.findFirst(board, player, Pieces.bySize(size));
+    }
+    return move;
+  }
+
+}
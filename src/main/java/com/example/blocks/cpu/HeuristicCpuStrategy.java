@@ -0,0 +1,65 @@
+package com.example.blocks.cpu;
+
+import java.util.Random;
+
+import com.example.blocks.engine.Board;
+import com.example.blocks.engine.Move;
+import com.example.blocks.engine.MoveGenerator;
+import com.example.blocks.engine.Territory;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * 全ての置ける手に点数をつけて一番よい手を選ぶCPU
+ *
+ * 点数は MoveScorer の点数に、置いたあとの陣地の差(Territory#score)を足したもの。
+ * 大きいブロックを置きつつ、自分の角を増やし相手の角を塞ぎ、自分だけが届く領域を広げる手を好む。
+ */
+@Component
+public class HeuristicCpuStrategy implements CpuStrategy {
+
+  public static final String NAME = "heuristic";
+
+  // 陣地の差の重み
+  static final int TERRITORY_WEIGHT = 1;
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public CpuCost getCost() {
+    return CpuCost.MEDIUM;
+  }
+
+  @Override
+  public int think(Board board, int player, Random random) {
+    MoveGenerator generator = new MoveGenerator();
+    int n = generator.generate(board, player);
+    if (n == 0) {
+      return Move.PASS;
+    }
+
+    MoveScorer scorer = new MoveScorer(board, player);
+    Territory territory = new Territory(board, 1);
+    int best = Move.PASS;
+    int bestScore = Integer.MIN_VALUE;
+    int ties = 0;
+    for (int i = 0; i < n; i++) {
+      int move = generator.getMove(i);
+      territory.apply(player, move);
+      int score = scorer.score(move) + TERRITORY_WEIGHT * territory.score(player);
+      territory.undo();
+      if (score > bestScore) {
+        best = move;
+        bestScore = score;
+        ties = 1;
+      } else if (score == bestScore && random.nextInt(++ties) == 0) {
+        best = move;
+      }
+    }
+    return best;
+  }
+
+}
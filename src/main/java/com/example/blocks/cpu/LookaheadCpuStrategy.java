@@ -0,0 +1,102 @@
+package com.example.blocks.cpu;
+
+import java.util.Random;
+
+import com.example.blocks.engine.Board;
+import com.example.blocks.engine.Move;
+import com.example.blocks.engine.MoveGenerator;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * 相手の応手まで読んで手を選ぶCPU
+ *
+ * MoveScorer の点数が高い候補だけについて、自分の手のあと相手全員が MoveScorer で一番よい手を打つと仮定して
+ * 一巡後の局面を評価し、一番よい候補を選ぶ。
+ * 局面の評価は置換表を引くのと変わらないくらい軽いので、置換表は使わない(深い探索の分を押し出さない)。
+ */
+@Component
+public class LookaheadCpuStrategy implements CpuStrategy {
+
+  public static final String NAME = "lookahead";
+
+  // 読む候補の数
+  private static final int CANDIDATES = 8;
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public CpuCost getCost() {
+    return CpuCost.HIGH;
+  }
+
+  @Override
+  public int think(Board board, int player, Random random) {
+    MoveGenerator generator = new MoveGenerator();
+    int n = generator.generate(board, player);
+    if (n == 0) {
+      return Move.PASS;
+    }
+
+    // 1手先の点数で候補を絞る
+    MoveScorer scorer = new MoveScorer(board, player);
+    int[] candidates = new int[Math.min(CANDIDATES, n)];
+    int[] scores = new int[candidates.length];
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      int move = generator.getMove(i);
+      int score = scorer.score(move);
+      int j = count < candidates.length ? count++ : candidates.length;
+      while (j > 0 && scores[j - 1] < score) {
+        if (j < candidates.length) {
+          candidates[j] = candidates[j - 1];
+          scores[j] = scores[j - 1];
+        }
+        j--;
+      }
+      if (j < candidates.length) {
+        candidates[j] = move;
+        scores[j] = score;
+      }
+    }
+
+    // 相手の応手まで進めた局面で評価する
+    Board next = new Board(board);
+    int best = candidates[0];
+    int bestValue = Integer.MIN_VALUE;
+    for (int i = 0; i < count; i++) {
+      next.copyFrom(board);
+      next.place(player, Move.orientation(candidates[i]), Move.x(candidates[i]), Move.y(candidates[i]));
+      for (int q = player % board.getPlayerNum() + 1; q != player; q = q % board.getPlayerNum() + 1) {
+        int reply = MoveScorer.bestMove(next, q, generator, random);
+        if (reply != Move.PASS) {
+          next.place(q, Move.orientation(reply), Move.x(reply), Move.y(reply));
+        }
+      }
+      int value = evaluate(next, player);
+      if (value > bestValue) {
+        best = candidates[i];
+        bestValue = value;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * 自分の置いたセル数と角の数から、相手で一番角の多いプレイヤーの角の数を引いたもの
+   */
+  private int evaluate(Board board, int player) {
+    int opponent = 0;
+    for (int q = 1; q <= board.getPlayerNum(); q++) {
+      if (q != player) {
+        opponent = Math.max(opponent, board.countAnchors(q));
+      }
+    }
+    return MoveScorer.SIZE_WEIGHT * board.countCells(player)
+        + MoveScorer.ANCHOR_WEIGHT * (board.countAnchors(player) - opponent);
+  }
+
+}
@@ -0,0 +1,437 @@
+package com.example.blocks.cpu;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.annotation.PreDestroy;
+
+import com.example.blocks.engine.Board;
+import com.example.blocks.engine.Move;
+import com.example.blocks.engine.MoveGenerator;
+import com.example.blocks.engine.Orientation;
+import com.example.blocks.engine.Pieces;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * モンテカルロ木探索(MCTS)で手を選ぶCPU
+ *
+ * スレッドごとに独立した木を作り(ルート並列化)、時間切れになったらルートの子の訪問回数を合計して
+ * 一番多く訪問された手を選ぶ。プレイアウトは角からランダムにブロックを当てはめるだけの軽いもので、
+ * 作業用の盤面や配列は使い回すのでプレイアウト中はオブジェクトを作らない。
+ */
+@Component
+public class MctsCpuStrategy implements CpuStrategy {
+
+  public static final String NAME = "mcts";
+
+  // UCT の探索の強さ
+  private static final double EXPLORATION = 0.7;
+
+  // 1局面で木に展開する手の最大数(大きいブロックから選ぶ)
+  private static final int MAX_CHILDREN = 32;
+
+  // プレイアウトでランダムに当てはめる回数。失敗したら大きいブロックから順に探す
+  private static final int RANDOM_TRIES = 16;
+
+  // 木を降りる深さの上限
+  private static final int MAX_DEPTH = 256;
+
+  @Value("${blocks.cpu.mcts.budget-ms:1000}")
+  private long budgetMs = 1000;
+
+  // 0より大きければ時間ではなくスレッドごとのプレイアウト回数で打ち切る(再現したいとき用)
+  @Value("${blocks.cpu.mcts.playouts:0}")
+  private int maxPlayouts = 0;
+
+  @Value("${blocks.cpu.mcts.threads:0}")
+  private int threads = 0;
+
+  private ForkJoinPool pool;
+
+  // 1手ごとに探索の様子を出力するか
+  private boolean logging = true;
+
+  private volatile double lastPlayoutsPerSecond;
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public CpuCost getCost() {
+    return CpuCost.HIGH;
+  }
+
+  public void setBudgetMs(long budgetMs) {
+    this.budgetMs = budgetMs;
+  }
+
+  public void setMaxPlayouts(int maxPlayouts) {
+    this.maxPlayouts = maxPlayouts;
+  }
+
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  public void setLogging(boolean logging) {
+    this.logging = logging;
+  }
+
+  /**
+   * 直前の思考での1秒あたりのプレイアウト回数(全スレッドの合計)
+   */
+  public double getLastPlayoutsPerSecond() {
+    return lastPlayoutsPerSecond;
+  }
+
+  @PreDestroy
+  public synchronized void shutdown() {
+    if (pool != null) {
+      pool.shutdownNow();
+      pool = null;
+    }
+  }
+
+  @Override
+  public int think(Board board, int player, Random random) {
+    long start = System.nanoTime();
+    long deadline = start + budgetMs * 1_000_000L;
+
+    int n = parallelism();
+    List<Future<Worker>> futures = new ArrayList<Future<Worker>>(n);
+    ForkJoinPool pool = pool();
+    for (int i = 0; i < n; i++) {
+      futures.add(pool.submit(new Worker(board, player, deadline, maxPlayouts, random.nextLong())));
+    }
+
+    // ルートの子の訪問回数を合計する
+    Map<Integer, Integer> visits = new HashMap<Integer, Integer>();
+    long playouts = 0;
+    for (Future<Worker> future : futures) {
+      Worker worker;
+      try {
+        worker = future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (ExecutionException e) {
+        throw new IllegalStateException(e.getCause());
+      }
+      playouts += worker.playouts;
+      Node root = worker.root;
+      for (int i = 0; i < root.expanded; i++) {
+        visits.merge(root.children[i].move, root.children[i].visits, Integer::sum);
+      }
+    }
+
+    int best = Move.PASS;
+    int bestVisits = -1;
+    for (Map.Entry<Integer, Integer> entry : visits.entrySet()) {
+      if (entry.getValue() > bestVisits) {
+        best = entry.getKey();
+        bestVisits = entry.getValue();
+      }
+    }
+    if (visits.isEmpty()) {
+      // 1回も探索できなかったとき(割り込まれたときなど)は、置ける手があればパスしない
+      best = new MoveGenerator().findFirst(board, player, board.getRemaining(player));
+    }
+
+    double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+    lastPlayoutsPerSecond = playouts / seconds;
+    if (logging) {
+      System.out.println(String.format("mcts: player=%d, threads=%d, playouts=%d, %.0f playouts/s", player, n,
+          playouts, lastPlayoutsPerSecond));
+    }
+    return best;
+  }
+
+  private int parallelism() {
+    return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+  }
+
+  private synchronized ForkJoinPool pool() {
+    if (pool == null) {
+      pool = new ForkJoinPool(parallelism());
+    }
+    return pool;
+  }
+
+  /**
+   * 木の節点。move は player が打った手(ルートは Move.PASS)
+   */
+  private static final class Node {
+    final int move;
+    final int player;
+    int[] moves;       // 展開する手(null なら未展開)
+    Node[] children;
+    int expanded;      // 作った子の数
+    int visits;
+    double value;      // player から見た報酬の合計
+
+    Node(int move, int player) {
+      this.move = move;
+      this.player = player;
+    }
+
+    Node select() {
+      double log = Math.log(visits);
+      Node best = null;
+      double bestScore = Double.NEGATIVE_INFINITY;
+      for (int i = 0; i < expanded; i++) {
+        Node child = children[i];
+        double score = child.value / child.visits + EXPLORATION * Math.sqrt(log / child.visits);
+        if (score > bestScore) {
+          best = child;
+          bestScore = score;
+        }
+      }
+      return best;
+    }
+  }
+
+  /**
+   * 1スレッド分の探索
+   */
+  private static final class Worker implements Callable<Worker> {
+    private final Board rootBoard;
+    private final int rootPlayer;
+    private final long deadline;
+    private final int playerNum;
+    private final SplittableRandom random;
+
+    private final Board board;
+    private final MoveGenerator generator = new MoveGenerator();
+    private final long[] anchors;
+    private final int[] scores;
+    private final double[] rewards;
+    private final Node[] path = new Node[MAX_DEPTH];
+
+    private final int maxPlayouts;
+
+    private Node root;
+    private int playouts;
+
+    Worker(Board board, int player, long deadline, int maxPlayouts, long seed) {
+      this.rootBoard = board;
+      this.rootPlayer = player;
+      this.deadline = deadline;
+      this.maxPlayouts = maxPlayouts;
+      this.playerNum = board.getPlayerNum();
+      this.random = new SplittableRandom(seed);
+      this.board = new Board(board);
+      this.anchors = new long[board.getHeight()];
+      this.scores = new int[playerNum + 1];
+      this.rewards = new double[playerNum + 1];
+    }
+
+    @Override
+    public Worker call() {
+      root = new Node(Move.PASS, 0);
+      // 始まるのが時間切れの後でも(他のゲームとプールを取り合ったときなど)、ルートの子を1つは作る
+      do {
+        iterate();
+        playouts++;
+      } while (maxPlayouts > 0 ? playouts < maxPlayouts : System.nanoTime() < deadline);
+      return this;
+    }
+
+    private void iterate() {
+      board.copyFrom(rootBoard);
+      Node node = root;
+      int toMove = rootPlayer;
+      int passes = 0;
+      int depth = 0;
+      path[depth++] = node;
+
+      // 選択: 全ての子を作り終えた節点は UCT で降りる
+      while (node.moves != null && node.expanded == node.moves.length && node.expanded > 0 && passes < playerNum
+          && depth < MAX_DEPTH) {
+        node = node.select();
+        passes = apply(node.move, toMove, passes);
+        toMove = next(toMove);
+        path[depth++] = node;
+      }
+
+      // 展開: まだ作っていない子を1つ作る
+      if (passes < playerNum && depth < MAX_DEPTH) {
+        if (node.moves == null) {
+          expand(node, toMove);
+        }
+        if (node.expanded < node.moves.length) {
+          Node child = new Node(node.moves[node.expanded], toMove);
+          node.children[node.expanded++] = child;
+          node = child;
+          passes = apply(node.move, toMove, passes);
+          toMove = next(toMove);
+          path[depth++] = node;
+        }
+      }
+
+      // シミュレーションと逆伝播
+      playout(toMove);
+      for (int i = 0; i < depth; i++) {
+        path[i].visits++;
+        if (path[i].player > 0) {
+          path[i].value += rewards[path[i].player];
+        }
+      }
+    }
+
+    private int apply(int move, int player, int passes) {
+      if (move == Move.PASS) {
+        return passes + 1;
+      }
+      board.place(player, Move.orientation(move), Move.x(move), Move.y(move));
+      return 0;
+    }
+
+    private int next(int player) {
+      return player % playerNum + 1;
+    }
+
+    /**
+     * 大きいブロックの手から順に最大 MAX_CHILDREN 個を子の候補にする(同じ大きさの中ではランダム)
+     */
+    private void expand(Node node, int player) {
+      int n = generator.generate(board, player);
+      if (n == 0) {
+        node.moves = new int[] { Move.PASS };
+      } else {
+        int[] moves = new int[Math.min(n, MAX_CHILDREN)];
+        int count = 0;
+        for (int size = 5; size > 0 && count < moves.length; size--) {
+          int from = count;
+          int seen = 0;
+          for (int i = 0; i < n; i++) {
+            int move = generator.getMove(i);
+            if (Pieces.size(Move.blockType(move)) != size) {
+              continue;
+            }
+            // 入りきらなければ蓄積サンプリングで同じ大きさの中からランダムに選ぶ
+            if (count < moves.length) {
+              moves[count++] = move;
+            } else {
+              int j = random.nextInt(seen + 1);
+              if (j < count - from) {
+                moves[from + j] = move;
+              }
+            }
+            seen++;
+          }
+        }
+        node.moves = moves;
+      }
+      node.children = new Node[node.moves.length];
+    }
+
+    /**
+     * 全員が置けなくなるまでランダムに打ち、報酬を計算する
+     */
+    private void playout(int toMove) {
+      int out = 0;
+      int all = (1 << playerNum) - 1;
+      int player = toMove;
+      while (out != all) {
+        int bit = 1 << (player - 1);
+        if ((out & bit) == 0) {
+          int move = randomMove(player);
+          if (move == Move.PASS) {
+            // 一度置けなくなったプレイヤーはその後も置けない
+            out |= bit;
+          } else {
+            board.place(player, Move.orientation(move), Move.x(move), Move.y(move));
+          }
+        }
+        player = next(player);
+      }
+
+      // 報酬: 勝ち(同点は等分)を半分、取ったセル数の割合を半分
+      int best = 0;
+      int winners = 0;
+      for (int q = 1; q <= playerNum; q++) {
+        scores[q] = board.countCells(q);
+        if (scores[q] > best) {
+          best = scores[q];
+          winners = 1;
+        } else if (scores[q] == best) {
+          winners++;
+        }
+      }
+      for (int q = 1; q <= playerNum; q++) {
+        rewards[q] = (scores[q] == best ? 0.5 / winners : 0) + 0.5 * scores[q] / Pieces.TOTAL_CELLS;
+      }
+    }
+
+    /**
+     * 角をランダムに選んでブロックを当てはめる。何度か失敗したら大きいブロックから順に探す
+     */
+    private int randomMove(int player) {
+      int remaining = board.getRemaining(player);
+      if (remaining == 0) {
+        return Move.PASS;
+      }
+      board.anchors(player, anchors);
+      int total = 0;
+      for (int y = 0; y < anchors.length; y++) {
+        total += Long.bitCount(anchors[y]);
+      }
+      if (total == 0) {
+        return Move.PASS;
+      }
+
+      int types = Integer.bitCount(remaining);
+      for (int attempt = 0; attempt < RANDOM_TRIES; attempt++) {
+        // 角を選ぶ
+        int k = random.nextInt(total);
+        int ay = 0;
+        while (Long.bitCount(anchors[ay]) <= k) {
+          k -= Long.bitCount(anchors[ay++]);
+        }
+        long bits = anchors[ay];
+        for (int i = 0; i < k; i++) {
+          bits &= bits - 1;
+        }
+        int ax = Long.numberOfTrailingZeros(bits);
+
+        // ブロック、向き、角に重ねるセルを選ぶ
+        int type = nthBit(remaining, random.nextInt(types));
+        Orientation orientation = Pieces.distinct(type, random.nextInt(Pieces.distinctCount(type)));
+        int[] cell = orientation.getCells()[random.nextInt(orientation.getSize())];
+        int x = ax - cell[0];
+        int y = ay - cell[1];
+        if (board.canPlace(player, orientation, x, y)) {
+          return Move.of(orientation, x, y);
+        }
+      }
+
+      for (int size = 5; size > 0; size--) {
+        int move = generator.findFirst(board, player, Pieces.bySize(size));
+        if (move != Move.PASS) {
+          return move;
+        }
+      }
+      return Move.PASS;
+    }
+
+    private static int nthBit(int bits, int n) {
+      for (int i = 0; i < n; i++) {
+        bits &= bits - 1;
+      }
+      return Integer.numberOfTrailingZeros(bits);
+    }
+  }
+
+}
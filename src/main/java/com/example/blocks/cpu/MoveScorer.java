@@ -0,0 +1,84 @@
+package com.example.blocks.cpu;
+
+import java.util.Random;
+
+import com.example.blocks.engine.Board;
+import com.example.blocks.engine.Move;
+import com.example.blocks.engine.MoveGenerator;
+import com.example.blocks.engine.Pieces;
+
+/**
+ * 1手先を読んで手に点数をつける
+ *
+ * 点数は、置くブロックのセル数、自分の角の増えた数、相手の角を減らした数の重み付きの和。
+ * 作業用の盤面を使い回すので、インスタンスは1回の思考の中だけで使うこと。
+ */
+class MoveScorer {
+
+  static final int SIZE_WEIGHT = 4;
+  static final int ANCHOR_WEIGHT = 2;
+  static final int BLOCK_WEIGHT = 1;
+
+  private final Board board;
+  private final Board scratch;
+  private final int player;
+  private final int[] anchors;
+
+  MoveScorer(Board board, int player) {
+    this(board, new Board(board), player);
+  }
+
+  /**
+   * 作業用の盤面を渡して使い回す(中身は上書きされる)
+   */
+  MoveScorer(Board board, Board scratch, int player) {
+    this.board = board;
+    this.scratch = scratch;
+    this.player = player;
+    this.anchors = new int[board.getPlayerNum() + 1];
+    for (int q = 1; q <= board.getPlayerNum(); q++) {
+      anchors[q] = board.countAnchors(q);
+    }
+  }
+
+  int score(int move) {
+    scratch.copyFrom(board);
+    scratch.place(player, Move.orientation(move), Move.x(move), Move.y(move));
+
+    int score = SIZE_WEIGHT * Pieces.size(Move.blockType(move))
+        + ANCHOR_WEIGHT * (scratch.countAnchors(player) - anchors[player]);
+    for (int q = 1; q <= board.getPlayerNum(); q++) {
+      if (q != player) {
+        score += BLOCK_WEIGHT * (anchors[q] - scratch.countAnchors(q));
+      }
+    }
+    return score;
+  }
+
+  /**
+   * 点数が一番高い手を返す(同点なら乱数で選ぶ)
+   */
+  static int bestMove(Board board, int player, MoveGenerator generator, Random random) {
+    int n = generator.generate(board, player);
+    if (n == 0) {
+      return Move.PASS;
+    }
+    MoveScorer scorer = new MoveScorer(board, player);
+    int best = Move.PASS;
+    int bestScore = Integer.MIN_VALUE;
+    int ties = 0;
+    for (int i = 0; i < n; i++) {
+      int move = generator.getMove(i);
+      int score = scorer.score(move);
+      if (score > bestScore) {
+        best = move;
+        bestScore = score;
+        ties = 1;
+      } else if (score == bestScore && random.nextInt(++ties) == 0) {
+        best = move;
+      }
+    }
+    return best;
+  }
+
+}
@@ -0,0 +1,173 @@
+package com.example.blocks.cpu;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.SortedMap;
+
+import javax.annotation.PostConstruct;
+
+import com.example.blocks.engine.Board;
+import com.example.blocks.engine.Pieces;
+import com.example.blocks.engine.Symmetry;
+import com.example.blocks.engine.Variant;
+import com.example.blocks.engine.Zobrist;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 定跡(序盤の局面ごとの手)
+ *
+ * OpeningBookBuilder で作ったファイルを blocks.cpu.opening-book で指定すると、起動時にメモリマップして読む。
+ * ファイルは ヘッダ(MAGIC, 版, 手数, 件数) のあとに (局面のキー long, 手 int) がキーの順に並んだもので、
+ * 引くときは二分探索する。局面のキーは、回転・反転した盤面のハッシュのうち一番小さいものに手番を混ぜた値(下位3ビットは0)で、
+ * 手もその向きに変換して入れてある。定跡はクラシックの盤(Variant.CLASSIC)だけで使う。
+ */
+@Component
+public class OpeningBook {
+
+  /** 定跡にない局面の戻り値 */
+  public static final int MISS = Integer.MIN_VALUE;
+
+  static final int MAGIC = 0x424c4b42; // "BLKB"
+  static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = 16;
+  private static final int ENTRY_SIZE = 12;
+
+  static final int SYMMETRY_MASK = Symmetry.COUNT - 1;
+
+  @Value("${blocks.cpu.opening-book:}")
+  private String path = "";
+
+  private ByteBuffer entries;
+  private int size;
+  private int maxPlies;
+
+  public OpeningBook() {
+  }
+
+  public OpeningBook(Path path) throws IOException {
+    load(path);
+  }
+
+  @PostConstruct
+  public void init() {
+    if (path.isEmpty()) {
+      return;
+    }
+    try {
+      load(Paths.get(path));
+      System.out.println("opening book: " + size + " positions from " + path);
+    } catch (IOException | IllegalArgumentException e) {
+      // 定跡がなくても探索で打てるので起動は続ける
+      System.out.println("opening book not loaded: " + e.getMessage());
+    }
+  }
+
+  private void load(Path path) throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      throw new IllegalArgumentException("not an opening book: " + path);
+    }
+    int plies = buffer.getInt(8);
+    int count = buffer.getInt(12);
+    if (buffer.capacity() != HEADER_SIZE + (long) count * ENTRY_SIZE) {
+      throw new IllegalArgumentException("broken opening book: " + path);
+    }
+    this.entries = buffer;
+    this.maxPlies = plies;
+    this.size = count;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * 定跡の手を返す(なければ MISS)
+   */
+  public int lookup(Board board, int player) {
+    if (size == 0 || board.getVariant() != Variant.CLASSIC || countPlaced(board) > maxPlies) {
+      return MISS;
+    }
+    long canonical = canonical(board, player);
+    int symmetry = (int) (canonical & SYMMETRY_MASK);
+    long key = canonical & ~(long) SYMMETRY_MASK;
+
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long k = entries.getLong(HEADER_SIZE + mid * ENTRY_SIZE);
+      if (k < key) {
+        low = mid + 1;
+      } else if (k > key) {
+        high = mid - 1;
+      } else {
+        int move = entries.getInt(HEADER_SIZE + mid * ENTRY_SIZE + Long.BYTES);
+        return Symmetry.move(move, Symmetry.inverse(symmetry), board);
+      }
+    }
+    return MISS;
+  }
+
+  /**
+   * 置いたブロックの数(全員の合計)
+   */
+  static int countPlaced(Board board) {
+    int count = 0;
+    for (int player = 1; player <= board.getPlayerNum(); player++) {
+      count += Pieces.COUNT - Integer.bitCount(board.getRemaining(player));
+    }
+    return count;
+  }
+
+  /**
+   * 局面のキー(回転・反転した盤面のハッシュのうち一番小さいものに手番を混ぜた値)と、そのときの変換
+   *
+   * @return 上位 61 ビットがキー、下位 3 ビットが変換の番号
+   */
+  static long canonical(Board board, int player) {
+    long[] hashes = new long[Symmetry.COUNT];
+    Symmetry.hashes(board, hashes);
+    int best = 0;
+    for (int symmetry : board.getVariant().getSymmetries()) {
+      if (Long.compareUnsigned(hashes[symmetry], hashes[best]) < 0) {
+        best = symmetry;
+      }
+    }
+    return ((hashes[best] ^ Zobrist.turn(player)) & ~(long) SYMMETRY_MASK) | best;
+  }
+
+  /**
+   * 定跡ファイルを書く
+   *
+   * @param book キーの順に並んだ (局面のキー, 変換後の手)
+   */
+  static void write(Path path, int maxPlies, SortedMap<Long, Integer> book) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(maxPlies);
+      out.writeInt(book.size());
+      for (Map.Entry<Long, Integer> entry : book.entrySet()) {
+        out.writeLong(entry.getKey());
+        out.writeInt(entry.getValue());
+      }
+    }
+  }
+
+}
@@ -0,0 +1,81 @@
+package com.example.blocks.cpu;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.example.blocks.engine.Board;
+import com.example.blocks.engine.Move;
+import com.example.blocks.engine.Symmetry;
+import com.example.blocks.engine.TranspositionTable;
+
+/**
+ * 定跡ファイルを作る(オフラインで実行する)
+ *
+ * 席ごとに思考ルーチンをランダムに選んだ対局を繰り返し、序盤に現れた局面ごとに
+ * パラノイド探索を長めに読ませた手を定跡にする。
+ *
+ * <pre>
+ * java -cp target/classes com.example.blocks.cpu.OpeningBookBuilder opening-book.bin [対局数] [手数] [読む時間(ms)] [乱数の種]
+ * </pre>
+ */
+public class OpeningBookBuilder {
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.out.println("usage: OpeningBookBuilder <output> [games=100] [plies=16] [budget-ms=500] [seed=1]");
+      return;
+    }
+    int games = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    int plies = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+    long budgetMs = args.length > 3 ? Long.parseLong(args[3]) : 500;
+    long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+
+    TranspositionTable transpositionTable = new TranspositionTable(1 << 20);
+    ParanoidCpuStrategy book = new ParanoidCpuStrategy(transpositionTable);
+    book.setBudgetMs(budgetMs);
+    // 実際の対局でよく現れる局面を集めるため、定跡の手以外に軽い思考ルーチンの手も打たせる
+    CpuStrategy[] players = { book, new GreedyCpuStrategy(), new HeuristicCpuStrategy(),
+        new LookaheadCpuStrategy() };
+
+    Random random = new Random(seed);
+    SortedMap<Long, Integer> entries = new TreeMap<Long, Integer>();
+    for (int game = 0; game < games; game++) {
+      Board board = new Board();
+      CpuStrategy[] seats = new CpuStrategy[board.getPlayerNum()];
+      for (int i = 0; i < seats.length; i++) {
+        seats[i] = players[random.nextInt(players.length)];
+      }
+
+      for (int ply = 0; ply < plies; ply++) {
+        int player = ply % board.getPlayerNum() + 1;
+        long canonical = OpeningBook.canonical(board, player);
+        int symmetry = (int) (canonical & OpeningBook.SYMMETRY_MASK);
+        long key = canonical & ~(long) OpeningBook.SYMMETRY_MASK;
+        Integer known = entries.get(key);
+        int bookMove;
+        if (known != null) {
+          bookMove = Symmetry.move(known, Symmetry.inverse(symmetry), board);
+        } else {
+          bookMove = book.think(board, player, random);
+          if (bookMove != Move.PASS) {
+            entries.put(key, Symmetry.move(bookMove, symmetry, board));
+          }
+        }
+
+        CpuStrategy seat = seats[player - 1];
+        int move = seat == book ? bookMove : seat.think(board, player, random);
+        if (move != Move.PASS) {
+          board.place(player, Move.orientation(move), Move.x(move), Move.y(move));
+        }
+      }
+      System.out.println("game " + (game + 1) + "/" + games + ": " + entries.size() + " positions");
+    }
+
+    OpeningBook.write(Paths.get(args[0]), plies, entries);
+    System.out.println("wrote " + entries.size() + " positions to " + args[0]);
+  }
+
+}
@@ -0,0 +1,364 @@
+package com.example.blocks.cpu;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.example.blocks.engine.Board;
+import com.example.blocks.engine.Move;
+import com.example.blocks.engine.MoveGenerator;
+import com.example.blocks.engine.Territory;
+import com.example.blocks.engine.TranspositionTable;
+import com.example.blocks.engine.Zobrist;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * パラノイド探索(相手全員が自分の邪魔をすると仮定した αβ 探索)で手を選ぶCPU
+ *
+ * 1手ずつ深くしながら制限時間まで読み、時間切れになったら最後まで読めた深さの一番よい手を返す。
+ * 各局面では MoveScorer の点数(ブロックの大きさと角の増減)で手を並べ、上位の手だけを読む。
+ * 置換表には前の深さで一番よかった手を残し、次の深さで最初に読む。
+ * 末端の評価にはセル数と角の数に加えて陣地(Territory)の広さを使う。
+ */
+@Component
+public class ParanoidCpuStrategy implements CpuStrategy {
+
+  public static final String NAME = "paranoid";
+
+  // ルートで読む手の数
+  private static final int ROOT_BEAM = 16;
+
+  // ルート以外で読む手の数
+  private static final int BEAM = 6;
+
+  // 読む深さの上限
+  private static final int MAX_DEPTH = 16;
+
+  // 他の思考ルーチンと置換表のキーが重ならないようにずらす値
+  private static final long KEY_SALT = 0x7061726e6f696421L;
+
+  private static final int INFINITY = Integer.MAX_VALUE;
+
+  // 陣地の広さの重み
+  private static final int TERRITORY_WEIGHT = 1;
+
+  @Value("${blocks.cpu.paranoid.budget-ms:200}")
+  private long budgetMs = 200;
+
+  @Autowired(required = false)
+  private TranspositionTable transpositionTable;
+
+  // 1手ごとに探索の様子を出力するか
+  private boolean logging = true;
+
+  public ParanoidCpuStrategy() {
+  }
+
+  public ParanoidCpuStrategy(TranspositionTable transpositionTable) {
+    this.transpositionTable = transpositionTable;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public CpuCost getCost() {
+    return CpuCost.HIGH;
+  }
+
+  public void setBudgetMs(long budgetMs) {
+    this.budgetMs = budgetMs;
+  }
+
+  public void setLogging(boolean logging) {
+    this.logging = logging;
+  }
+
+  @Override
+  public int think(Board board, int player, Random random) {
+    return new Search(board, player, System.nanoTime() + budgetMs * 1_000_000L).run();
+  }
+
+  /**
+   * 上位の手それぞれに評価値を付ける(ヒント用)
+   *
+   * 最善手だけを求める think と違い、ルートの手は全て全幅の窓で読むので、それぞれの評価値は正確な値になる。
+   *
+   * @param moves 手を評価値の高い順に入れる配列(長さまで)
+   * @param scores moves に対応する評価値を入れる配列
+   * @return 入れた手の数(置ける手がなければ 0)
+   */
+  public int analyze(Board board, int player, long budgetMs, int[] moves, int[] scores) {
+    return new Search(board, player, System.nanoTime() + budgetMs * 1_000_000L).analyze(moves, scores);
+  }
+
+  /**
+   * 1回の思考の状態。盤面と陣地は Territory で深さごとに進めたり戻したりする
+   */
+  private final class Search {
+    private final int root;
+    private final int playerNum;
+    private final long deadline;
+    private final long salt;
+
+    private final Territory territory;
+    private final Board scratch;
+    private final int[][] moves = new int[MAX_DEPTH + 1][];
+    private final int[][] scores = new int[MAX_DEPTH + 1][];
+    private final MoveGenerator generator = new MoveGenerator();
+
+    private int nodes;
+    private boolean aborted;
+
+    Search(Board board, int player, long deadline) {
+      this.root = player;
+      this.playerNum = board.getPlayerNum();
+      this.deadline = deadline;
+      // 評価は手番のプレイヤーから見た値なので、キーにも含める
+      this.salt = KEY_SALT * player;
+      this.territory = new Territory(board, MAX_DEPTH + 1);
+      this.scratch = new Board(board);
+      for (int i = 0; i <= MAX_DEPTH; i++) {
+        int beam = i == 0 ? ROOT_BEAM : BEAM;
+        moves[i] = new int[beam];
+        scores[i] = new int[beam];
+      }
+    }
+
+    int run() {
+      int count = order(0, root, Move.PASS);
+      if (count == 0) {
+        return Move.PASS;
+      }
+      int best = moves[0][0];
+      int completed = 0;
+      for (int depth = 1; depth <= MAX_DEPTH && !aborted; depth++) {
+        int move = searchRoot(depth);
+        if (!aborted) {
+          best = move;
+          completed = depth;
+        }
+      }
+      if (logging) {
+        System.out.println(String.format("paranoid: player=%d, depth=%d, nodes=%d", root, completed, nodes));
+      }
+      return best;
+    }
+
+    int analyze(int[] outMoves, int[] outScores) {
+      int count = order(0, root, Move.PASS);
+      int[] rootMoves = Arrays.copyOf(moves[0], count);
+
+      // 時間がなくても返せるように、まず置いた直後の評価値を入れておく
+      int[] values = new int[count];
+      for (int i = 0; i < count; i++) {
+        territory.apply(root, rootMoves[i]);
+        values[i] = evaluate();
+        territory.undo();
+      }
+      int completed = 0;
+      for (int depth = 1; depth <= MAX_DEPTH && !aborted; depth++) {
+        int[] current = new int[count];
+        for (int i = 0; i < count && !aborted; i++) {
+          territory.apply(root, rootMoves[i]);
+          current[i] = search(1, next(root), depth - 1, -INFINITY, INFINITY);
+          territory.undo();
+        }
+        if (!aborted) {
+          values = current;
+          completed = depth;
+        }
+      }
+      if (logging) {
+        System.out.println(String.format("paranoid: analyze player=%d, moves=%d, depth=%d, nodes=%d", root, count,
+            completed, nodes));
+      }
+
+      // 評価値の高い順に選ぶ
+      int n = Math.min(count, outMoves.length);
+      boolean[] used = new boolean[count];
+      for (int k = 0; k < n; k++) {
+        int best = -1;
+        for (int i = 0; i < count; i++) {
+          if (!used[i] && (best < 0 || values[i] > values[best])) {
+            best = i;
+          }
+        }
+        used[best] = true;
+        outMoves[k] = rootMoves[best];
+        outScores[k] = values[best];
+      }
+      return n;
+    }
+
+    private int searchRoot(int depth) {
+      int count = order(0, root, probeMove(root));
+      int best = moves[0][0];
+      int alpha = -INFINITY;
+      for (int i = 0; i < count; i++) {
+        int move = moves[0][i];
+        territory.apply(root, move);
+        int value = search(1, next(root), depth - 1, alpha, INFINITY);
+        territory.undo();
+        if (aborted) {
+          return best;
+        }
+        if (value > alpha) {
+          alpha = value;
+          best = move;
+        }
+      }
+      store(root, depth, alpha, TranspositionTable.EXACT, best);
+      return best;
+    }
+
+    private int search(int ply, int toMove, int depth, int alpha, int beta) {
+      if (System.nanoTime() > deadline) {
+        aborted = true;
+      }
+      if (aborted) {
+        return 0;
+      }
+      nodes++;
+      if (depth == 0 || ply > MAX_DEPTH) {
+        return evaluate();
+      }
+
+      // 置換表
+      int ttMove = Move.PASS;
+      if (transpositionTable != null) {
+        long entry = transpositionTable.probe(key(toMove));
+        if (entry != TranspositionTable.MISS) {
+          ttMove = TranspositionTable.move(entry);
+          if (TranspositionTable.depth(entry) >= depth) {
+            int score = TranspositionTable.score(entry);
+            int bound = TranspositionTable.bound(entry);
+            if (bound == TranspositionTable.EXACT || (bound == TranspositionTable.LOWER && score >= beta)
+                || (bound == TranspositionTable.UPPER && score <= alpha)) {
+              return score;
+            }
+          }
+        }
+      }
+
+      int count = order(ply, toMove, ttMove);
+      if (count == 0) {
+        // 置けなければパスして次の人へ
+        territory.apply(toMove, Move.PASS);
+        int value = search(ply + 1, next(toMove), depth - 1, alpha, beta);
+        territory.undo();
+        return value;
+      }
+
+      // 自分の手番では最大、相手の手番では最小を選ぶ
+      boolean maximize = toMove == root;
+      int originalAlpha = alpha;
+      int originalBeta = beta;
+      int best = maximize ? -INFINITY : INFINITY;
+      int bestMove = moves[ply][0];
+      for (int i = 0; i < count; i++) {
+        int move = moves[ply][i];
+        territory.apply(toMove, move);
+        int value = search(ply + 1, next(toMove), depth - 1, alpha, beta);
+        territory.undo();
+        if (aborted) {
+          return 0;
+        }
+        if (maximize ? value > best : value < best) {
+          best = value;
+          bestMove = move;
+        }
+        if (maximize) {
+          alpha = Math.max(alpha, value);
+        } else {
+          beta = Math.min(beta, value);
+        }
+        if (alpha >= beta) {
+          break;
+        }
+      }
+
+      int bound = best <= originalAlpha ? TranspositionTable.UPPER
+          : best >= originalBeta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+      store(toMove, depth, best, bound, bestMove);
+      return best;
+    }
+
+    /**
+     * 手番のプレイヤーから見た MoveScorer の点数で、上位の手を moves[ply] に並べる(置換表の手は先頭)
+     */
+    private int order(int ply, int toMove, int ttMove) {
+      int n = generator.generate(territory.getBoard(), toMove);
+      if (n == 0) {
+        return 0;
+      }
+      MoveScorer scorer = new MoveScorer(territory.getBoard(), scratch, toMove);
+      int[] candidates = moves[ply];
+      int[] values = scores[ply];
+      int count = 0;
+      for (int i = 0; i < n; i++) {
+        int move = generator.getMove(i);
+        int score = move == ttMove ? INFINITY : scorer.score(move);
+        int j = count < candidates.length ? count++ : candidates.length;
+        while (j > 0 && values[j - 1] < score) {
+          if (j < candidates.length) {
+            candidates[j] = candidates[j - 1];
+            values[j] = values[j - 1];
+          }
+          j--;
+        }
+        if (j < candidates.length) {
+          candidates[j] = move;
+          values[j] = score;
+        }
+      }
+      return count;
+    }
+
+    /**
+     * 自分の置いたセル数、角の数、陣地の広さの重み付きの和から、相手で一番よいプレイヤーのものを引いたもの
+     */
+    private int evaluate() {
+      int opponent = Integer.MIN_VALUE;
+      for (int q = 1; q <= playerNum; q++) {
+        if (q != root) {
+          opponent = Math.max(opponent, value(q));
+        }
+      }
+      return value(root) - opponent;
+    }
+
+    private int value(int player) {
+      Board board = territory.getBoard();
+      return MoveScorer.SIZE_WEIGHT * board.countCells(player) + MoveScorer.ANCHOR_WEIGHT * board.countAnchors(player)
+          + TERRITORY_WEIGHT * territory.getTerritory(player);
+    }
+
+    private long key(int toMove) {
+      return territory.getBoard().getHash() ^ Zobrist.turn(toMove) ^ salt;
+    }
+
+    private int probeMove(int toMove) {
+      if (transpositionTable == null) {
+        return Move.PASS;
+      }
+      long entry = transpositionTable.probe(key(toMove));
+      return entry == TranspositionTable.MISS ? Move.PASS : TranspositionTable.move(entry);
+    }
+
+    private void store(int toMove, int depth, int score, int bound, int move) {
+      if (transpositionTable != null) {
+        transpositionTable.store(key(toMove), depth, score, bound, move);
+      }
+    }
+
+    private int next(int player) {
+      return player % playerNum + 1;
+    }
+  }
+
+}
@@ -0,0 +1,349 @@
+package com.example.blocks.engine;
+
+import java.util.Arrays;
+
+/**
+ * ビットボードによる盤面
+ *
+ * 1行を long 1つで持ち、x列目のセルを (1L << x) のビットで表す。配列の長さ(行の数、人数)と行のマスクは
+ * 盤の種類(Variant)で決まるので、14x14 の2人用の盤では14行・2人分だけを調べる。
+ * プレイヤー番号は他のクラスと同じく1始まり。
+ */
+public class Board {
+
+  private final Variant variant;
+  private final int width;
+  private final int height;
+  private final int playerNum;
+  private final long rowMask;
+
+  // 誰かがブロックを置いているセル
+  private final long[] occupied;
+
+  // プレイヤーごとのブロックを置いているセル
+  private final long[][] own;
+
+  // 自分のブロックと辺で接するセル(自分のセルを含む)。ここには置けない
+  private final long[][] forbidden;
+
+  // 次に置くときの起点になる角。自分のブロックと角で接するセル(最初は盤の種類で決まった場所)のうち、
+  // 誰も置いておらず、自分のブロックと辺で接していないもの。ここを踏めば置ける
+  private final long[][] anchors;
+
+  // プレイヤーごとのまだ置いていないブロック(ブロックの種類ごとに1ビット)
+  private final int[] remaining;
+
+  // 局面のハッシュ(置いたセルと使ったブロックの Zobrist の XOR)
+  private long hash;
+
+  public Board() {
+    this(Variant.CLASSIC);
+  }
+
+  public Board(Variant variant) {
+    if (variant.getWidth() > Long.SIZE || variant.getHeight() > Zobrist.MAX_SIZE) {
+      throw new IllegalArgumentException("board must be at most " + Long.SIZE + "x" + Zobrist.MAX_SIZE + ": "
+          + variant);
+    }
+    this.variant = variant;
+    this.width = variant.getWidth();
+    this.height = variant.getHeight();
+    this.playerNum = variant.getPlayerNum();
+    this.rowMask = variant.getRowMask();
+    this.occupied = new long[height];
+    this.own = new long[playerNum][height];
+    this.forbidden = new long[playerNum][height];
+    this.anchors = new long[playerNum][height];
+    this.remaining = new int[playerNum];
+    Arrays.fill(remaining, Pieces.ALL);
+
+    // 最初は盤の種類で決まった場所(四隅など)から置く
+    for (int p = 0; p < playerNum; p++) {
+      System.arraycopy(variant.getStartAnchors(p + 1), 0, anchors[p], 0, height);
+    }
+  }
+
+  /**
+   * 盤面をコピーする
+   */
+  public Board(Board other) {
+    this(other.variant);
+    copyFrom(other);
+  }
+
+  /**
+   * プレイヤーごとの置いたセルと残りのブロックから盤面を作り直す(スナップショットから戻すとき)
+   *
+   * 置けないセル、角、ハッシュは置いたセルだけから決まるので、置いた順番がなくても同じ盤面になる。
+   *
+   * @param own [プレイヤー番号 - 1][行] の置いたセル
+   * @param remaining プレイヤー番号 - 1 の順のまだ置いていないブロック
+   */
+  public static Board restore(Variant variant, long[][] own, int[] remaining) {
+    Board board = new Board(variant);
+    int height = board.height;
+    for (int p = 0; p < board.playerNum; p++) {
+      System.arraycopy(own[p], 0, board.own[p], 0, height);
+      board.remaining[p] = remaining[p];
+      for (int b = 0; b < Pieces.COUNT; b++) {
+        if ((remaining[p] & (1 << b)) == 0) {
+          board.hash ^= Zobrist.piece(p + 1, b);
+        }
+      }
+      for (int y = 0; y < height; y++) {
+        long m = own[p][y];
+        long side = (m << 1 | m >>> 1) & board.rowMask;
+        board.occupied[y] |= m;
+        board.forbidden[p][y] |= m | side;
+        if (y > 0) {
+          board.forbidden[p][y - 1] |= m;
+          board.anchors[p][y - 1] |= side;
+        }
+        if (y < height - 1) {
+          board.forbidden[p][y + 1] |= m;
+          board.anchors[p][y + 1] |= side;
+        }
+        for (long cells = m; cells != 0; cells &= cells - 1) {
+          board.hash ^= Zobrist.cell(p + 1, Long.numberOfTrailingZeros(cells), y);
+        }
+      }
+    }
+    for (int p = 0; p < board.playerNum; p++) {
+      for (int y = 0; y < height; y++) {
+        board.anchors[p][y] &= ~(board.occupied[y] | board.forbidden[p][y]);
+      }
+    }
+    return board;
+  }
+
+  /**
+   * 同じ大きさの盤面の内容を上書きコピーする(配列は作り直さない)
+   */
+  public void copyFrom(Board other) {
+    System.arraycopy(other.occupied, 0, occupied, 0, height);
+    for (int p = 0; p < playerNum; p++) {
+      System.arraycopy(other.own[p], 0, own[p], 0, height);
+      System.arraycopy(other.forbidden[p], 0, forbidden[p], 0, height);
+      System.arraycopy(other.anchors[p], 0, anchors[p], 0, height);
+    }
+    System.arraycopy(other.remaining, 0, remaining, 0, playerNum);
+    hash = other.hash;
+  }
+
+  public Variant getVariant() {
+    return variant;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getPlayerNum() {
+    return playerNum;
+  }
+
+  /**
+   * まだ置いていないブロック(ブロックの種類ごとに1ビット)
+   */
+  public int getRemaining(int player) {
+    return remaining[player - 1];
+  }
+
+  /**
+   * プレイヤーが置いたセルの数(ポイント)
+   */
+  public int countCells(int player) {
+    int count = 0;
+    for (long row : own[player - 1]) {
+      count += Long.bitCount(row);
+    }
+    return count;
+  }
+
+  /**
+   * 局面のハッシュ。置いたセルと使ったブロックが同じなら、置いた順番によらず同じ値になる
+   */
+  public long getHash() {
+    return hash;
+  }
+
+  /**
+   * 次に置くときの起点になる角をコピーする
+   *
+   * @param out 行ごとの結果を入れる配列(高さ以上の長さ)
+   */
+  public void anchors(int player, long[] out) {
+    System.arraycopy(anchors[player - 1], 0, out, 0, height);
+  }
+
+  /**
+   * プレイヤーが置いたセルをコピーする
+   *
+   * @param out 行ごとの結果を入れる配列(高さ以上の長さ)
+   */
+  public void own(int player, long[] out) {
+    System.arraycopy(own[player - 1], 0, out, 0, height);
+  }
+
+  /**
+   * 次に置くときの起点になる角の数
+   */
+  public int countAnchors(int player) {
+    int count = 0;
+    for (long row : anchors[player - 1]) {
+      count += Long.bitCount(row);
+    }
+    return count;
+  }
+
+  /**
+   * 自分がまだ置けるセル(誰も置いておらず、自分のブロックと辺で接していないセル)をコピーする
+   *
+   * @param out 行ごとの結果を入れる配列(高さ以上の長さ)
+   */
+  public void placeable(int player, long[] out) {
+    int p = player - 1;
+    for (int y = 0; y < height; y++) {
+      out[y] = rowMask & ~occupied[y] & ~forbidden[p][y];
+    }
+  }
+
+  /**
+   * 角から辺または斜めでつながった、自分がまだ置けるセルの数
+   *
+   * 相手がこれ以上置かないとしたときに、このプレイヤーが取れるセル数の上限になる。
+   */
+  public int countReachable(int player) {
+    int p = player - 1;
+    long[] region = new long[height];
+    System.arraycopy(anchors[p], 0, region, 0, height);
+
+    // 置けるセルの中で、8方向に広げられなくなるまで広げる
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int y = 0; y < height; y++) {
+        long grow = region[y] | region[y] << 1 | region[y] >>> 1;
+        if (y > 0) {
+          grow |= region[y - 1] | region[y - 1] << 1 | region[y - 1] >>> 1;
+        }
+        if (y < height - 1) {
+          grow |= region[y + 1] | region[y + 1] << 1 | region[y + 1] >>> 1;
+        }
+        grow &= rowMask & ~occupied[y] & ~forbidden[p][y];
+        if (grow != region[y]) {
+          region[y] = grow;
+          changed = true;
+        }
+      }
+    }
+
+    int count = 0;
+    for (long row : region) {
+      count += Long.bitCount(row);
+    }
+    return count;
+  }
+
+  /**
+   * ブロックを置けるかどうかのチェック
+   *
+   * @param player プレイヤー番号(1始まり)
+   * @param orientation 置くブロックの向き
+   * @param x 配置先のX座標
+   * @param y 配置先のY座標
+   */
+  public boolean canPlace(int player, Orientation orientation, int x, int y) {
+    // はみ出てたらダメ！
+    if (x < 0 || y < 0 || x + orientation.getWidth() > width || y + orientation.getHeight() > height) {
+      return false;
+    }
+
+    int p = player - 1;
+    long[] rows = orientation.rows();
+    long touch = 0;
+    for (int r = 0; r < rows.length; r++) {
+      long m = rows[r] << x;
+
+      // すでにあるか、同じ色と辺で接していたらダメ！
+      if ((m & (occupied[y + r] | forbidden[p][y + r])) != 0) {
+        return false;
+      }
+
+      // 同じ色と角で接しているか、四隅を踏んでたらOK
+      touch |= m & anchors[p][y + r];
+    }
+    return touch != 0;
+  }
+
+  /**
+   * ブロックを置く(置けるかどうかのチェックはしない)
+   *
+   * 変化するのはブロックの周り1マスの行だけなので、その行のマスクだけを更新する。
+   * すでに置いたブロックをもう一度置こうとした場合は何もしない。
+   */
+  public void place(int player, Orientation orientation, int x, int y) {
+    int p = player - 1;
+    int bit = 1 << orientation.getBlockType();
+    if ((remaining[p] & bit) == 0) {
+      return;
+    }
+    remaining[p] &= ~bit;
+    hash ^= Zobrist.piece(player, orientation.getBlockType());
+    for (int[] position : orientation.getCells()) {
+      hash ^= Zobrist.cell(player, x + position[0], y + position[1]);
+    }
+
+    long[] rows = orientation.rows();
+    for (int r = 0; r < rows.length; r++) {
+      int newY = y + r;
+      long m = rows[r] << x;
+      long side = (m << 1 | m >>> 1) & rowMask;
+
+      occupied[newY] |= m;
+      own[p][newY] |= m;
+
+      // 同じ行の左右、上下の行の同じ列は置けなくなり、上下の行の斜めが角の候補になる
+      forbidden[p][newY] |= m | side;
+      if (newY > 0) {
+        forbidden[p][newY - 1] |= m;
+        anchors[p][newY - 1] |= side;
+      }
+      if (newY < height - 1) {
+        forbidden[p][newY + 1] |= m;
+        anchors[p][newY + 1] |= side;
+      }
+    }
+
+    // 埋まったセル、辺で接したセルを角から外す
+    int from = Math.max(y - 1, 0);
+    int to = Math.min(y + rows.length, height - 1);
+    for (int row = from; row <= to; row++) {
+      for (int q = 0; q < playerNum; q++) {
+        anchors[q][row] &= ~occupied[row];
+      }
+      anchors[p][row] &= ~forbidden[p][row];
+    }
+  }
+
+  /**
+   * セルに置いているプレイヤー番号を返す(誰も置いていなければ0)
+   */
+  public int getOwner(int x, int y) {
+    long bit = 1L << x;
+    if ((occupied[y] & bit) == 0) {
+      return 0;
+    }
+    for (int p = 0; p < playerNum; p++) {
+      if ((own[p][y] & bit) != 0) {
+        return p + 1;
+      }
+    }
+    return 0;
+  }
+
+}
@@ -0,0 +1,65 @@
+package com.example.blocks.engine;
+
+import com.example.blocks.entity.Hand;
+
+/**
+ * 手を int 1つで表すためのユーティリティ
+ *
+ * 探索中に Hand を作らずに済むよう、ブロックの種類・向きの通し番号・座標を詰めて持つ。
+ */
+public final class Move {
+
+  /** パス(置ける手がない) */
+  public static final int PASS = -1;
+
+  private static final int COORD_BITS = 6;
+  private static final int COORD_MASK = (1 << COORD_BITS) - 1;
+  private static final int ORIENTATION_BITS = 3;
+  private static final int ORIENTATION_MASK = (1 << ORIENTATION_BITS) - 1;
+
+  private static final int Y_SHIFT = COORD_BITS;
+  private static final int ORIENTATION_SHIFT = Y_SHIFT + COORD_BITS;
+  private static final int TYPE_SHIFT = ORIENTATION_SHIFT + ORIENTATION_BITS;
+
+  private Move() {
+  }
+
+  public static int of(Orientation orientation, int x, int y) {
+    return orientation.getBlockType() << TYPE_SHIFT | orientation.getIndex() << ORIENTATION_SHIFT | y << Y_SHIFT | x;
+  }
+
+  public static int blockType(int move) {
+    return move >>> TYPE_SHIFT;
+  }
+
+  public static Orientation orientation(int move) {
+    return Pieces.distinct(blockType(move), (move >>> ORIENTATION_SHIFT) & ORIENTATION_MASK);
+  }
+
+  public static int x(int move) {
+    return move & COORD_MASK;
+  }
+
+  public static int y(int move) {
+    return (move >>> Y_SHIFT) & COORD_MASK;
+  }
+
+  /**
+   * 画面やDBで使う Hand に変換する
+   */
+  public static Hand toHand(int move) {
+    Hand hand = new Hand();
+    if (move == PASS) {
+      hand.setPass(true);
+      return hand;
+    }
+    Orientation orientation = orientation(move);
+    hand.setBlockType(orientation.getBlockType());
+    hand.setAngle(orientation.getAngle());
+    hand.setFlip(orientation.isFlip());
+    hand.setX(x(move));
+    hand.setY(y(move));
+    return hand;
+  }
+
+}
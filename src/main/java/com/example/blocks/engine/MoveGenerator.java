@@ -0,0 +1,135 @@
+package com.example.blocks.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.example.blocks.entity.Hand;
+
+/**
+ * 置ける手の列挙
+ *
+ * 盤面全体を走査するのではなく、プレイヤーの角(まだ誰も置いておらず、自分と角で接しているセル)を起点に、
+ * 各向きのどのセルをその角に重ねるかを試す。同じ置き方が複数の角から見つかった場合は、
+ * 走査順で最初の角から見つかったときだけ採用するので重複しない。
+ *
+ * 作業用の配列を使い回すので、インスタンスはスレッドごとに作ること。
+ */
+public class MoveGenerator {
+
+  private long[] anchors = new long[0];
+  private int[] moves = new int[256];
+  private int count;
+
+  /**
+   * 残っている全てのブロックについて置ける手を列挙する
+   *
+   * @return 手の数。手は getMove() で取り出す
+   */
+  public int generate(Board board, int player) {
+    return generate(board, player, board.getRemaining(player), null, false);
+  }
+
+  /**
+   * 指定した向きのブロックについて置ける手を列挙する
+   */
+  public int generate(Board board, int player, Orientation orientation) {
+    return generate(board, player, 1 << orientation.getBlockType(), orientation, false);
+  }
+
+  /**
+   * 指定したブロック(ビットで指定)のうち、最初に見つかった置ける手を返す
+   *
+   * @return 置ける手がなければ Move.PASS
+   */
+  public int findFirst(Board board, int player, int blockTypes) {
+    int n = generate(board, player, blockTypes & board.getRemaining(player), null, true);
+    return n == 0 ? Move.PASS : moves[0];
+  }
+
+  /**
+   * 置ける手が１つでもあるかどうか
+   */
+  public boolean hasMove(Board board, int player) {
+    return findFirst(board, player, board.getRemaining(player)) != Move.PASS;
+  }
+
+  public int getMove(int i) {
+    return moves[i];
+  }
+
+  /**
+   * 置ける手を Hand のリストで返す
+   */
+  public List<Hand> generateHands(Board board, int player) {
+    int n = generate(board, player);
+    List<Hand> hands = new ArrayList<Hand>(n);
+    for (int i = 0; i < n; i++) {
+      hands.add(Move.toHand(moves[i]));
+    }
+    return hands;
+  }
+
+  private int generate(Board board, int player, int blockTypes, Orientation only, boolean stopAtFirst) {
+    count = 0;
+    if (blockTypes == 0) {
+      return 0;
+    }
+    int height = board.getHeight();
+    if (anchors.length < height) {
+      anchors = new long[height];
+    }
+    board.anchors(player, anchors);
+
+    for (int ay = 0; ay < height; ay++) {
+      long bits = anchors[ay];
+      while (bits != 0) {
+        int ax = Long.numberOfTrailingZeros(bits);
+        bits &= bits - 1;
+
+        for (int types = blockTypes; types != 0; types &= types - 1) {
+          int type = Integer.numberOfTrailingZeros(types);
+          int n = only != null ? 1 : Pieces.distinctCount(type);
+          for (int i = 0; i < n; i++) {
+            Orientation orientation = only != null ? only : Pieces.distinct(type, i);
+
+            // 向きの各セルを角に重ねてみる
+            for (int[] position : orientation.getCells()) {
+              int x = ax - position[0];
+              int y = ay - position[1];
+              if (!board.canPlace(player, orientation, x, y) || coversEarlierAnchor(orientation, x, y, ax, ay)) {
+                continue;
+              }
+              if (count == moves.length) {
+                moves = Arrays.copyOf(moves, count * 2);
+              }
+              moves[count++] = Move.of(orientation, x, y);
+              if (stopAtFirst) {
+                return count;
+              }
+            }
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * 走査順で (ax, ay) より前の角も踏んでいるかどうか(前の角で既に列挙済み)
+   */
+  private boolean coversEarlierAnchor(Orientation orientation, int x, int y, int ax, int ay) {
+    long[] rows = orientation.rows();
+    for (int r = 0; r < rows.length && y + r <= ay; r++) {
+      long m = (rows[r] << x) & anchors[y + r];
+      if (y + r == ay) {
+        m &= (1L << ax) - 1;
+      }
+      if (m != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,78 @@
+package com.example.blocks.engine;
+
+/**
+ * 回転・反転済みのブロックの形
+ *
+ * Pieces でクラスロード時に一度だけ作られ、以降は変更されない。
+ */
+public final class Orientation {
+
+  private final int blockType;  // ブロックの種類
+  private final int index;      // 同じブロックの中での向きの通し番号(重複を除いたもの)
+  private final int angle;      // 角度(0〜3)
+  private final boolean flip;   // 反転しているかどうか
+  private final int[][] cells;  // 左上を(0, 0)にそろえた各セルの座標 {x, y}
+  private final long[] rows;    // 行ごとのビット列
+  private final int width;
+  private final int height;
+
+  Orientation(int blockType, int index, int angle, boolean flip, int[][] cells) {
+    this.blockType = blockType;
+    this.index = index;
+    this.angle = angle;
+    this.flip = flip;
+    this.cells = cells;
+
+    int w = 0, h = 0;
+    for (int[] position : cells) {
+      w = Math.max(w, position[0] + 1);
+      h = Math.max(h, position[1] + 1);
+    }
+    this.width = w;
+    this.height = h;
+    this.rows = new long[h];
+    for (int[] position : cells) {
+      rows[position[1]] |= 1L << position[0];
+    }
+  }
+
+  public int getBlockType() {
+    return blockType;
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  public int getAngle() {
+    return angle;
+  }
+
+  public boolean isFlip() {
+    return flip;
+  }
+
+  /**
+   * 各セルの座標 {x, y} を返す。共有しているので書き換えないこと
+   */
+  public int[][] getCells() {
+    return cells;
+  }
+
+  public int getSize() {
+    return cells.length;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  long[] rows() {
+    return rows;
+  }
+
+}
@@ -0,0 +1,179 @@
+package com.example.blocks.engine;
+
+import java.util.Arrays;
+
+/**
+ * 全21種類のブロックの形と、その回転・反転した向きの表
+ *
+ * 向きはクラスロード時に一度だけ計算する。左右対称なブロックなどで形が同じになる向きは
+ * 最初に出てきた向きにまとめているので、探索では distinct() だけを見ればよい。
+ */
+public final class Pieces {
+
+  private static final int[][][] BLOCK_SHAPE = { { { 0, 0 }, { 0, 1 }, { 1, 0 }, { 1, 1 } }, // 0:四角
+      { { 0, 0 } }, // 1:１小竹の
+      { { 1, 0 }, { 0, 1 }, { 1, 1 }, { 2, 1 } }, // 2:逆T(短かい方)
+      { { 0, 0 }, { 1, 0 } }, // 3:２連続
+      { { 0, 0 }, { 1, 0 }, { 2, 0 }, { 3, 0 } }, // 4:４連続
+      { { 0, 0 }, { 1, 0 }, { 1, 1 } }, // 5:「の３個
+      { { 0, 1 }, { 1, 1 }, { 2, 1 }, { 2, 0 } }, // 6:「の４個
+      { { 0, 0 }, { 1, 0 }, { 2, 0 } }, // 7:３連続
+      { { 0, 1 }, { 1, 0 }, { 1, 1 }, { 2, 0 } }, // 8:半分卍(４個)
+
+      { { 0, 0 }, { 0, 1 }, { 1, 1 }, { 2, 1 }, { 3, 1 } }, // 9: 寝てる
+      { { 0, 2 }, { 1, 0 }, { 1, 1 }, { 1, 2 }, { 2, 2 } }, // 10: 逆T(長い方)
+      { { 0, 0 }, { 0, 1 }, { 0, 2 }, { 1, 2 }, { 2, 2 } }, // 11: L(５個)
+      { { 0, 1 }, { 1, 0 }, { 1, 1 }, { 2, 0 }, { 3, 0 } }, // 12: 半分卍(４個)
+      { { 0, 1 }, { 0, 2 }, { 1, 1 }, { 2, 0 }, { 2, 1 } }, // 13: Z
+      { { 0, 0 }, { 0, 1 }, { 0, 2 }, { 0, 3 }, { 0, 4 } }, // 14:５連続
+
+      { { 0, 0 }, { 0, 1 }, { 0, 2 }, { 1, 1 }, { 1, 2 } }, // 15: 下半身太
+      { { 1, 0 }, { 2, 0 }, { 0, 1 }, { 1, 1 }, { 0, 2 } }, // 16: Wみたいなの
+      { { 0, 0 }, { 1, 0 }, { 0, 1 }, { 0, 2 }, { 1, 2 } }, // 17: コの逆
+      { { 1, 0 }, { 2, 0 }, { 0, 1 }, { 1, 1 }, { 1, 2 } }, // 18: 手裏剣風
+      { { 1, 0 }, { 2, 1 }, { 0, 1 }, { 1, 1 }, { 1, 2 } }, // 19: 十字架
+      { { 1, 0 }, { 0, 1 }, { 1, 1 }, { 2, 1 }, { 3, 1 } }, // 20: トンファー
+
+  };
+
+  /** ブロックの種類の数 */
+  public static final int COUNT = BLOCK_SHAPE.length;
+
+  /** 全てのブロックが残っている状態(ブロックの種類ごとに1ビット) */
+  public static final int ALL = (1 << COUNT) - 1;
+
+  /** 全てのブロックを置いたときのセル数 */
+  public static final int TOTAL_CELLS = Arrays.stream(BLOCK_SHAPE).mapToInt(shape -> shape.length).sum();
+
+  // 回転は4種類、反転あり・なしで最大8種類の向きがある
+  private static final int ANGLE_NUM = 4;
+  private static final int SHAPE_GRID = 5;
+
+  // [ブロックの種類][角度 * 2 + 反転] -> 向き(重複しているものは同じインスタンス)
+  private static final Orientation[][] ORIENTATIONS = new Orientation[COUNT][ANGLE_NUM * 2];
+
+  // [ブロックの種類] -> 重複を除いた向き
+  private static final Orientation[][] DISTINCT = new Orientation[COUNT][];
+
+  // [セル数] -> ブロックの種類(ビット)
+  private static final int[] BY_SIZE = new int[6];
+
+  static {
+    for (int type = 0; type < COUNT; type++) {
+      BY_SIZE[BLOCK_SHAPE[type].length] |= 1 << type;
+
+      Orientation[] distinct = new Orientation[ANGLE_NUM * 2];
+      int n = 0;
+      for (int angle = 0; angle < ANGLE_NUM; angle++) {
+        for (int f = 0; f < 2; f++) {
+          int[][] cells = calcBlockShape(BLOCK_SHAPE[type], angle, f == 1);
+          Orientation orientation = null;
+          for (int i = 0; i < n; i++) {
+            if (Arrays.deepEquals(distinct[i].getCells(), cells)) {
+              orientation = distinct[i];
+              break;
+            }
+          }
+          if (orientation == null) {
+            orientation = new Orientation(type, n, angle, f == 1, cells);
+            distinct[n++] = orientation;
+          }
+          ORIENTATIONS[type][angle * 2 + f] = orientation;
+        }
+      }
+      DISTINCT[type] = Arrays.copyOf(distinct, n);
+    }
+  }
+
+  private Pieces() {
+  }
+
+  /**
+   * ブロックのセル数
+   */
+  public static int size(int blockType) {
+    return BLOCK_SHAPE[blockType].length;
+  }
+
+  /**
+   * 指定したセル数のブロック(ブロックの種類ごとに1ビット)
+   */
+  public static int bySize(int size) {
+    return BY_SIZE[size];
+  }
+
+  /**
+   * 指定した角度・反転の向きを返す。角度は4で割った余りを使う
+   */
+  public static Orientation get(int blockType, int angle, boolean flip) {
+    return ORIENTATIONS[blockType][(angle & (ANGLE_NUM - 1)) * 2 + (flip ? 1 : 0)];
+  }
+
+  /**
+   * 重複を除いた向きの数
+   */
+  public static int distinctCount(int blockType) {
+    return DISTINCT[blockType].length;
+  }
+
+  /**
+   * 重複を除いた向きの i 番目を返す
+   */
+  public static Orientation distinct(int blockType, int i) {
+    return DISTINCT[blockType][i];
+  }
+
+  /***
+   * ブロックを90度回転、反転させる
+   *
+   * 5x5のマスに描いて回すので、以前 GameController で毎回計算していたものと同じ向きになる。
+   * 結果は左上を(0, 0)にそろえ、y、xの順に並べる。
+   */
+  private static int[][] calcBlockShape(int[][] shape, int angle, boolean flip) {
+    boolean[][] cells = new boolean[SHAPE_GRID][SHAPE_GRID];
+    for (int[] position : shape) {
+      cells[position[1]][position[0]] = true;
+    }
+
+    for (int a = 0; a < angle; a++) {
+      // 90度回転
+      boolean[][] rotated = new boolean[SHAPE_GRID][SHAPE_GRID];
+      for (int x = 0; x < SHAPE_GRID; x++) {
+        for (int y = 0; y < SHAPE_GRID; y++) {
+          rotated[y][x] = cells[SHAPE_GRID - 1 - x][y];
+        }
+      }
+      cells = rotated;
+    }
+
+    // 反転flgがあれば、反転させる
+    if (flip) {
+      boolean[][] flipped = new boolean[SHAPE_GRID][SHAPE_GRID];
+      for (int x = 0; x < SHAPE_GRID; x++) {
+        for (int y = 0; y < SHAPE_GRID; y++) {
+          flipped[y][x] = cells[y][SHAPE_GRID - 1 - x];
+        }
+      }
+      cells = flipped;
+    }
+
+    // 入っている座標だけを抜き出し、x、yの最小値が０になるようずらす
+    int[][] result = new int[shape.length][];
+    int i = 0, minX = SHAPE_GRID, minY = SHAPE_GRID;
+    for (int y = 0; y < SHAPE_GRID; y++) {
+      for (int x = 0; x < SHAPE_GRID; x++) {
+        if (cells[y][x]) {
+          result[i++] = new int[] { x, y };
+          minX = Math.min(minX, x);
+          minY = Math.min(minY, y);
+        }
+      }
+    }
+    for (int[] position : result) {
+      position[0] -= minX;
+      position[1] -= minY;
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,135 @@
+package com.example.blocks.engine;
+
+/**
+ * 盤面の対称変換(回転・反転)
+ *
+ * 変換は0から7の番号で表し、ビット2が立っていれば先に縦横を入れ替え、ビット0で左右、ビット1で上下を反転する。
+ * 盤で使えるのは、最初の角を動かさない変換だけ(Variant#getSymmetries)。
+ */
+public final class Symmetry {
+
+  public static final int COUNT = 8;
+
+  private static final int MIRROR_X = 1;
+  private static final int MIRROR_Y = 2;
+  static final int TRANSPOSE = 4;
+
+  private Symmetry() {
+  }
+
+  /**
+   * 逆変換(入れ替えがあるときは反転の向きも入れ替わる)
+   */
+  public static int inverse(int symmetry) {
+    if ((symmetry & TRANSPOSE) == 0) {
+      return symmetry;
+    }
+    return TRANSPOSE | (symmetry & MIRROR_X) << 1 | (symmetry & MIRROR_Y) >> 1;
+  }
+
+  public static int x(int symmetry, int x, int y, Board board) {
+    return x(symmetry, x, y, board.getWidth(), board.getHeight());
+  }
+
+  public static int y(int symmetry, int x, int y, Board board) {
+    return y(symmetry, x, y, board.getWidth(), board.getHeight());
+  }
+
+  static int x(int symmetry, int x, int y, int width, int height) {
+    int tx = (symmetry & TRANSPOSE) != 0 ? y : x;
+    return (symmetry & MIRROR_X) != 0 ? width - 1 - tx : tx;
+  }
+
+  static int y(int symmetry, int x, int y, int width, int height) {
+    int ty = (symmetry & TRANSPOSE) != 0 ? x : y;
+    return (symmetry & MIRROR_Y) != 0 ? height - 1 - ty : ty;
+  }
+
+  /**
+   * 変換した盤面のハッシュ(Board#getHash と同じ作り方)
+   */
+  public static long hash(Board board, int symmetry) {
+    long[] hashes = new long[COUNT];
+    hashes(board, hashes);
+    return hashes[symmetry];
+  }
+
+  /**
+   * 盤で使える全ての変換について、変換した盤面のハッシュを一度に計算する
+   *
+   * @param out 変換の番号ごとの結果を入れる配列(長さ COUNT 以上)
+   */
+  public static void hashes(Board board, long[] out) {
+    int[] symmetries = board.getVariant().getSymmetries();
+    long pieces = 0;
+    for (int player = 1; player <= board.getPlayerNum(); player++) {
+      int used = Pieces.ALL & ~board.getRemaining(player);
+      for (int type = 0; type < Pieces.COUNT; type++) {
+        if ((used & (1 << type)) != 0) {
+          pieces ^= Zobrist.piece(player, type);
+        }
+      }
+    }
+    for (int symmetry : symmetries) {
+      out[symmetry] = pieces;
+    }
+    for (int y = 0; y < board.getHeight(); y++) {
+      for (int x = 0; x < board.getWidth(); x++) {
+        int owner = board.getOwner(x, y);
+        if (owner != 0) {
+          for (int symmetry : symmetries) {
+            out[symmetry] ^= Zobrist.cell(owner, x(symmetry, x, y, board), y(symmetry, x, y, board));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * 手を変換する
+   */
+  public static int move(int move, int symmetry, Board board) {
+    if (move == Move.PASS || symmetry == 0) {
+      return move;
+    }
+    Orientation orientation = Move.orientation(move);
+    int[][] cells = orientation.getCells();
+    int[][] moved = new int[cells.length][];
+    int minX = Integer.MAX_VALUE;
+    int minY = Integer.MAX_VALUE;
+    for (int i = 0; i < cells.length; i++) {
+      int cx = Move.x(move) + cells[i][0];
+      int cy = Move.y(move) + cells[i][1];
+      moved[i] = new int[] { x(symmetry, cx, cy, board), y(symmetry, cx, cy, board) };
+      minX = Math.min(minX, moved[i][0]);
+      minY = Math.min(minY, moved[i][1]);
+    }
+
+    // 同じ形になる向きを探す
+    int type = orientation.getBlockType();
+    for (int i = 0; i < Pieces.distinctCount(type); i++) {
+      Orientation candidate = Pieces.distinct(type, i);
+      if (matches(candidate, moved, minX, minY)) {
+        return Move.of(candidate, minX, minY);
+      }
+    }
+    throw new IllegalStateException("no orientation for move " + move + " under symmetry " + symmetry);
+  }
+
+  private static boolean matches(Orientation orientation, int[][] moved, int minX, int minY) {
+    for (int[] cell : orientation.getCells()) {
+      boolean found = false;
+      for (int[] m : moved) {
+        if (m[0] - minX == cell[0] && m[1] - minY == cell[1]) {
+          found = true;
+          break;
+        }
+      }
+      if (!found) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,225 @@
+package com.example.blocks.engine;
+
+/**
+ * 陣地(各プレイヤーがこれから置ける領域)の見積もり
+ *
+ * 角から辺または斜めでつながった、自分がまだ置けるセルをプレイヤーごとに持つ(到達領域)。
+ * そのうち他の誰も届かないセルは自分だけの陣地(影響圏)として数える。
+ *
+ * 探索で使うために、手を進める(apply)・戻す(undo)を深さごとの盤面と領域の積み重ねで行う。
+ * ブロックを置いても到達領域は狭くなるだけなので、進めるときは1つ前の領域から置けなくなったセルを除き、
+ * そのセルに接していたつながり(成分)だけを角から塗り直す。置けなくなったセルがないプレイヤーはそのまま使う。
+ * 点数は進めたときに計算しておくので、問い合わせはすぐに返る。
+ */
+public class Territory {
+
+  /** 自分だけが届くセルの重み(全員が届くセルは1) */
+  public static final int EXCLUSIVE_WEIGHT = 2;
+
+  private final int playerNum;
+  private final int height;
+
+  // [深さ]
+  private final Board[] boards;
+
+  // [深さ][プレイヤー][行] -> 到達領域
+  private final long[][][] regions;
+
+  // [深さ][プレイヤー] -> 到達領域のセル数、自分だけが届くセル数
+  private final int[][] reachable;
+  private final int[][] exclusive;
+
+  // 作業用
+  private final long[] limit;
+  private final long[] removed;
+  private final long[] affected;
+
+  private int depth;
+
+  /**
+   * @param board 最初の局面(コピーして持つ)
+   * @param maxDepth 進められる手の数
+   */
+  public Territory(Board board, int maxDepth) {
+    this.playerNum = board.getPlayerNum();
+    this.height = board.getHeight();
+    this.boards = new Board[maxDepth + 1];
+    this.regions = new long[maxDepth + 1][playerNum][height];
+    this.reachable = new int[maxDepth + 1][playerNum];
+    this.exclusive = new int[maxDepth + 1][playerNum];
+    this.limit = new long[height];
+    this.removed = new long[height];
+    this.affected = new long[height];
+    for (int i = 0; i <= maxDepth; i++) {
+      boards[i] = new Board(board);
+    }
+    update(0);
+  }
+
+  /**
+   * 今の深さの盤面(書き換えないこと)
+   */
+  public Board getBoard() {
+    return boards[depth];
+  }
+
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * 手を進める(Move.PASS ならパス)
+   */
+  public void apply(int player, int move) {
+    if (depth + 1 >= boards.length) {
+      throw new IllegalStateException("territory stack is full: " + depth);
+    }
+    boards[depth + 1].copyFrom(boards[depth]);
+    if (move != Move.PASS) {
+      boards[depth + 1].place(player, Move.orientation(move), Move.x(move), Move.y(move));
+    }
+    depth++;
+    update(depth);
+  }
+
+  /**
+   * 1手戻す
+   */
+  public void undo() {
+    if (depth == 0) {
+      throw new IllegalStateException("nothing to undo");
+    }
+    depth--;
+  }
+
+  /**
+   * 角からつながった、まだ置けるセルの数
+   */
+  public int getReachable(int player) {
+    return reachable[depth][player - 1];
+  }
+
+  /**
+   * 自分だけが届くセルの数
+   */
+  public int getExclusive(int player) {
+    return exclusive[depth][player - 1];
+  }
+
+  /**
+   * 陣地の広さ(届くセル + 自分だけが届くセルの重み付き)
+   */
+  public int getTerritory(int player) {
+    return reachable[depth][player - 1] + (EXCLUSIVE_WEIGHT - 1) * exclusive[depth][player - 1];
+  }
+
+  /**
+   * 自分の陣地から、相手で一番広いプレイヤーの陣地を引いたもの
+   */
+  public int score(int player) {
+    int opponent = 0;
+    for (int q = 1; q <= playerNum; q++) {
+      if (q != player) {
+        opponent = Math.max(opponent, getTerritory(q));
+      }
+    }
+    return getTerritory(player) - opponent;
+  }
+
+  private void update(int level) {
+    Board board = boards[level];
+    for (int p = 0; p < playerNum; p++) {
+      long[] region = regions[level][p];
+      board.placeable(p + 1, limit);
+      if (level == 0) {
+        board.anchors(p + 1, region);
+        fill(region, limit);
+        continue;
+      }
+
+      // 1つ前の領域のうち、置いたブロックで置けなくなったセル
+      long[] previous = regions[level - 1][p];
+      boolean changed = false;
+      for (int y = 0; y < height; y++) {
+        removed[y] = previous[y] & ~limit[y];
+        limit[y] &= previous[y];
+        changed |= removed[y] != 0;
+      }
+      if (!changed) {
+        System.arraycopy(previous, 0, region, 0, height);
+        continue;
+      }
+
+      // 置けなくなったセルに接していた成分は角から届かなくなったかもしれないので、その中だけ塗り直す
+      for (int y = 0; y < height; y++) {
+        affected[y] = around(removed, y) & limit[y];
+      }
+      fill(affected, limit);
+      board.anchors(p + 1, region);
+      for (int y = 0; y < height; y++) {
+        region[y] &= affected[y];
+      }
+      fill(region, affected);
+      for (int y = 0; y < height; y++) {
+        region[y] |= limit[y] & ~affected[y];
+      }
+    }
+
+    for (int p = 0; p < playerNum; p++) {
+      int all = 0;
+      int own = 0;
+      for (int y = 0; y < height; y++) {
+        long others = 0;
+        for (int q = 0; q < playerNum; q++) {
+          if (q != p) {
+            others |= regions[level][q][y];
+          }
+        }
+        all += Long.bitCount(regions[level][p][y]);
+        own += Long.bitCount(regions[level][p][y] & ~others);
+      }
+      reachable[level][p] = all;
+      exclusive[level][p] = own;
+    }
+  }
+
+  /**
+   * limit の中で8方向に広げられなくなるまで広げる(上から下、下から上の順に塗る)
+   */
+  private void fill(long[] region, long[] limit) {
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int y = 0; y < height; y++) {
+        changed |= grow(region, limit, y);
+      }
+      for (int y = height - 1; y >= 0; y--) {
+        changed |= grow(region, limit, y);
+      }
+    }
+  }
+
+  private boolean grow(long[] region, long[] limit, int y) {
+    long grow = around(region, y) & limit[y];
+    if (grow != region[y]) {
+      region[y] = grow;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * y 行目で、cells のセル自身とその8方向に接するセル(盤の外にはみ出す分は呼び出し側でマスクする)
+   */
+  private long around(long[] cells, int y) {
+    long around = cells[y] | cells[y] << 1 | cells[y] >>> 1;
+    if (y > 0) {
+      around |= cells[y - 1] | cells[y - 1] << 1 | cells[y - 1] >>> 1;
+    }
+    if (y < height - 1) {
+      around |= cells[y + 1] | cells[y + 1] << 1 | cells[y + 1] >>> 1;
+    }
+    return around;
+  }
+
+}
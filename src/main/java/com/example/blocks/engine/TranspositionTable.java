@@ -0,0 +1,100 @@
+package com.example.blocks.engine;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 置換表(局面のハッシュ -> 探索結果)
+ *
+ * 固定サイズで、ロックを使わずに複数のスレッドから読み書きできる。
+ * 1エントリは (ハッシュ ^ データ, データ) の2つの long で持ち、読むときに XOR が一致するかを確かめるので、
+ * 書き込みが競合して片方だけ書き換わったエントリは読み捨てられる。衝突したときは常に新しいもので上書きする。
+ *
+ * データは下位から 手+1(21ビット)、境界の種類(2ビット)、深さ(8ビット)、有効フラグ(1ビット)、評価値(32ビット)。
+ */
+public class TranspositionTable {
+
+  /** 評価値は正確な値 */
+  public static final int EXACT = 0;
+  /** 評価値は下限(beta カット) */
+  public static final int LOWER = 1;
+  /** 評価値は上限(alpha を超えなかった) */
+  public static final int UPPER = 2;
+
+  /** 見つからなかったときに probe() が返す値 */
+  public static final long MISS = 0;
+
+  private static final int MOVE_BITS = 21;
+  private static final long MOVE_MASK = (1L << MOVE_BITS) - 1;
+  private static final int BOUND_SHIFT = MOVE_BITS;
+  private static final int DEPTH_SHIFT = BOUND_SHIFT + 2;
+  private static final long VALID = 1L << 31;
+  private static final int SCORE_SHIFT = 32;
+
+  private final AtomicLongArray entries;
+  private final int mask;
+
+  /**
+   * @param size エントリ数(2のべき乗に切り上げる)
+   */
+  public TranspositionTable(int size) {
+    int capacity = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+    this.entries = new AtomicLongArray(capacity * 2);
+    this.mask = capacity - 1;
+  }
+
+  public int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * 探索結果を保存する
+   *
+   * @param move 最善手(Move の値。パスは Move.PASS)
+   */
+  public void store(long hash, int depth, int score, int bound, int move) {
+    long data = (long) score << SCORE_SHIFT | VALID | (long) Math.min(depth, 0xff) << DEPTH_SHIFT
+        | (long) bound << BOUND_SHIFT | ((move + 1) & MOVE_MASK);
+    int i = index(hash);
+    entries.set(i, hash ^ data);
+    entries.set(i + 1, data);
+  }
+
+  /**
+   * 探索結果を探す
+   *
+   * @return 見つからなければ MISS。見つかれば move()、score() などで取り出す
+   */
+  public long probe(long hash) {
+    int i = index(hash);
+    long data = entries.get(i + 1);
+    long check = entries.get(i);
+    return (check ^ data) == hash && (data & VALID) != 0 ? data : MISS;
+  }
+
+  public void clear() {
+    for (int i = 0; i < entries.length(); i++) {
+      entries.set(i, 0);
+    }
+  }
+
+  public static int move(long data) {
+    return (int) (data & MOVE_MASK) - 1;
+  }
+
+  public static int score(long data) {
+    return (int) (data >> SCORE_SHIFT);
+  }
+
+  public static int depth(long data) {
+    return (int) (data >>> DEPTH_SHIFT) & 0xff;
+  }
+
+  public static int bound(long data) {
+    return (int) (data >>> BOUND_SHIFT) & 0x3;
+  }
+
+  private int index(long hash) {
+    return ((int) (hash ^ hash >>> 32) & mask) << 1;
+  }
+
+}
@@ -0,0 +1,130 @@
+package com.example.blocks.engine;
+
+import java.util.Arrays;
+
+/**
+ * 盤の種類(大きさ、人数、最初に置く場所)
+ *
+ * 盤面は1行を long 1つで持つので、行の数とマスクはここで決まる。最初の角、使える対称変換など
+ * 種類ごとに変わらないものは表にして持っておき、盤面を作るたびに計算しない。
+ */
+public enum Variant {
+
+  // 20x20、4人、四隅のどこからでも始められる
+  CLASSIC("クラシック", 20, 20, 4, null),
+
+  // 14x14、2人、(4, 4) と (9, 9) から始める
+  DUO("デュオ", 14, 14, 2, new int[][] { { 4, 4 }, { 9, 9 } }),
+
+  // 30x30、4人、四隅から始める
+  LARGE("ラージ", 30, 30, 4, null);
+
+  private final String label;
+  private final int width;
+  private final int height;
+  private final int playerNum;
+  private final long rowMask;
+
+  // [プレイヤー][行] -> 最初に踏む角
+  private final long[][] startAnchors;
+
+  // 最初の角を動かさない対称変換(Symmetry の番号)
+  private final int[] symmetries;
+
+  /**
+   * @param starts プレイヤーごとの最初に置くセル(null なら四隅のどこでも)
+   */
+  Variant(String label, int width, int height, int playerNum, int[][] starts) {
+    this.label = label;
+    this.width = width;
+    this.height = height;
+    this.playerNum = playerNum;
+    this.rowMask = width == Long.SIZE ? -1L : (1L << width) - 1;
+
+    this.startAnchors = new long[playerNum][height];
+    for (int p = 0; p < playerNum; p++) {
+      if (starts == null) {
+        long edges = 1L | (1L << (width - 1));
+        startAnchors[p][0] |= edges;
+        startAnchors[p][height - 1] |= edges;
+      } else {
+        startAnchors[p][starts[p][1]] |= 1L << starts[p][0];
+      }
+    }
+
+    int count = 0;
+    int[] valid = new int[Symmetry.COUNT];
+    for (int symmetry = 0; symmetry < Symmetry.COUNT; symmetry++) {
+      if (keepsStarts(symmetry)) {
+        valid[count++] = symmetry;
+      }
+    }
+    this.symmetries = Arrays.copyOf(valid, count);
+  }
+
+  /**
+   * 名前から選ぶ(大文字小文字は区別しない。空や不明ならクラシック)
+   */
+  public static Variant of(String name) {
+    for (Variant variant : values()) {
+      if (variant.name().equalsIgnoreCase(name)) {
+        return variant;
+      }
+    }
+    return CLASSIC;
+  }
+
+  public String getLabel() {
+    return label;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getPlayerNum() {
+    return playerNum;
+  }
+
+  long getRowMask() {
+    return rowMask;
+  }
+
+  long[] getStartAnchors(int player) {
+    return startAnchors[player - 1];
+  }
+
+  /**
+   * 使える対称変換の番号(0 は必ず含む)
+   */
+  public int[] getSymmetries() {
+    return symmetries;
+  }
+
+  /**
+   * 対称変換で全員の最初の角が動かないかどうか(縦横の長さが違えば入れ替えは使えない)
+   */
+  private boolean keepsStarts(int symmetry) {
+    if (width != height && (symmetry & Symmetry.TRANSPOSE) != 0) {
+      return false;
+    }
+    for (int p = 0; p < playerNum; p++) {
+      for (int y = 0; y < height; y++) {
+        for (long bits = startAnchors[p][y]; bits != 0; bits &= bits - 1) {
+          int x = Long.numberOfTrailingZeros(bits);
+          int tx = Symmetry.x(symmetry, x, y, width, height);
+          int ty = Symmetry.y(symmetry, x, y, width, height);
+          if ((startAnchors[p][ty] & (1L << tx)) == 0) {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+}
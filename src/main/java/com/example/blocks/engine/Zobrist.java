@@ -0,0 +1,61 @@
+package com.example.blocks.engine;
+
+import java.util.SplittableRandom;
+
+/**
+ * 局面のハッシュ(Zobrist hashing)に使う乱数表
+ *
+ * (プレイヤー, セル) と (プレイヤー, 使ったブロック) ごとに乱数を持ち、局面のハッシュはそれらの XOR で表す。
+ * ブロックを置くときは置いたセルとブロックの分だけ XOR すればよいので差分で更新できる。
+ * 乱数は固定のシードから作るので、プロセスをまたいでも同じ局面は同じハッシュになる。
+ */
+public final class Zobrist {
+
+  /** 盤の一辺の最大(セルの番号は y * MAX_SIZE + x) */
+  public static final int MAX_SIZE = 64;
+
+  private static final int MAX_PLAYERS = 4;
+  private static final long SEED = 0x426c6f636b73L;
+
+  private static final long[][] CELL = new long[MAX_PLAYERS][MAX_SIZE * MAX_SIZE];
+  private static final long[][] PIECE = new long[MAX_PLAYERS][Pieces.COUNT];
+  private static final long[] TURN = new long[MAX_PLAYERS];
+
+  static {
+    SplittableRandom random = new SplittableRandom(SEED);
+    for (int p = 0; p < MAX_PLAYERS; p++) {
+      for (int i = 0; i < CELL[p].length; i++) {
+        CELL[p][i] = random.nextLong();
+      }
+      for (int i = 0; i < PIECE[p].length; i++) {
+        PIECE[p][i] = random.nextLong();
+      }
+      TURN[p] = random.nextLong();
+    }
+  }
+
+  private Zobrist() {
+  }
+
+  /**
+   * プレイヤーがセルに置いていることを表す乱数
+   */
+  public static long cell(int player, int x, int y) {
+    return CELL[player - 1][y * MAX_SIZE + x];
+  }
+
+  /**
+   * プレイヤーがブロックを使ったことを表す乱数
+   */
+  public static long piece(int player, int blockType) {
+    return PIECE[player - 1][blockType];
+  }
+
+  /**
+   * 手番のプレイヤーを表す乱数。探索で手番まで区別したいときに局面のハッシュに XOR する
+   */
+  public static long turn(int player) {
+    return TURN[player - 1];
+  }
+
+}
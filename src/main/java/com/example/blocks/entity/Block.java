@@ -13,7 +13,7 @@ public class Block {
     public static final int STATUS_NOT_SETTED = 0;  // 未セット
     public static final int STATUS_SETTED = 1;      // セット済み
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "pooled")
     private Integer id;
 
     private Integer blockType;  // ブロックの種類
@@ -1,18 +1,21 @@
 package com.example.blocks.entity;
 
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 
+import com.example.blocks.engine.Variant;
+
 import lombok.Data;
 
 @Data
 @Entity
 public class Game {
-  public static final int PLAYER_NUM = 4;
   @Id
-  @GeneratedValue(strategy = GenerationType.AUTO)
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "pooled")
   private Integer id;
 
   private String date;        // 日時
@@ -21,9 +24,19 @@ public class Game {
 
   private String author;      // ゲーム開始者
 
+  @Enumerated(EnumType.STRING)
+  private Variant variant;    // 盤の種類
+
+  /**
+   * 盤の種類(盤の種類を持つ前のゲームはクラシック)
+   */
+  public Variant getVariant() {
+    return variant == null ? Variant.CLASSIC : variant;
+  }
+
   public void goNextPlayer() {
     nowPlayer++;
-    if (nowPlayer > PLAYER_NUM) {
+    if (nowPlayer > getVariant().getPlayerNum()) {
       nowPlayer = 1;
     }
     counter++;
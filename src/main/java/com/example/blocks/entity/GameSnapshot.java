@@ -0,0 +1,37 @@
+package com.example.blocks.entity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+
+import lombok.Data;
+
+/**
+ * ある手までの記録を打ち直した結果(読み込むときに打ち直す手を減らす)
+ */
+@Data
+@Entity
+@Table(indexes = @Index(columnList = "gameId, number"))
+public class GameSnapshot {
+  @Id
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "pooled")
+  private Integer id;
+
+  // ゲームID
+  @Column(nullable = false)
+  private Integer gameId;
+
+  // どの順番の記録までを含むか
+  @Column(nullable = false)
+  private Integer number;
+
+  // プレイヤーごとの残りのブロック、パス、置いたセル(GameStateStore が作る)
+  @Lob
+  @Column(nullable = false)
+  private byte[] data;
+}
@@ -8,6 +8,7 @@ public class Hand {
   private int y;
   private int blockType;
   private int angle;
+  private boolean flip;
   private boolean pass;
 
   public Hand() {
@@ -15,6 +16,7 @@ public class Hand {
     this.y = 0;
     this.blockType = 0;
     this.angle = 0;
+    this.flip = false;
     this.pass = false;
   }
 
@@ -0,0 +1,28 @@
+package com.example.blocks.entity;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+/**
+ * おすすめの手(Hand に評価値を付けたもの)
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+@ToString(callSuper = true)
+public class Hint extends Hand {
+  private int score;  // 評価値(手番のプレイヤーから見て大きいほどよい)
+
+  public Hint() {
+  }
+
+  public Hint(Hand hand, int score) {
+    setX(hand.getX());
+    setY(hand.getY());
+    setBlockType(hand.getBlockType());
+    setAngle(hand.getAngle());
+    setFlip(hand.isFlip());
+    setPass(hand.isPass());
+    this.score = score;
+  }
+}
@@ -0,0 +1,17 @@
+package com.example.blocks.entity;
+
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * ある局面でのヒントの一覧
+ */
+@Data
+public class HintInfo {
+  private int id;           // ゲームID
+  private int counter;      // 手順のカウンター(画面の局面と違えば古いヒント)
+  private int player;       // 手番のプレイヤー番号
+  private long budgetMs;    // 考えた時間
+  private List<Hint> hints; // 評価値の高い順
+}
@@ -0,0 +1,10 @@
+package com.example.blocks.entity;
+
+import lombok.Data;
+
+@Data
+public class HintRequest {
+    private int id;
+    private int count;
+    private long budgetMs;
+}
@@ -7,6 +7,8 @@ public class Kouho {
   private int x;
   private int y;
   private String[][] cells;
+  private int hintRank;    // ヒントの順位(ヒントでなければ 0)
+  private int hintScore;   // ヒントの評価値
   public Kouho(int x, int y, String[][] cells) {
     this.x = x;
     this.y = y;
@@ -0,0 +1,40 @@
+package com.example.blocks.entity;
+
+import lombok.Data;
+
+/**
+ * 受け付けなかった手の通知(送ってきたセッションだけに返す)
+ */
+@Data
+public class MoveError {
+
+  public enum Reason {
+    GAME_NOT_FOUND("ゲームが見つかりません"),
+    NOT_YOUR_TURN("あなたの番ではありません"),
+    BLOCK_NOT_FOUND("そのブロックはもう置いています"),
+    ILLEGAL_PLACEMENT("そこには置けません"),
+    ILLEGAL_PASS("置ける場所があるのでパスできません");
+
+    private final String text;
+
+    Reason(String text) {
+      this.text = text;
+    }
+
+    public String getText() {
+      return text;
+    }
+  }
+
+  private int id;           // ゲームID
+  private Reason reason;
+  private String message;
+  private Message move;     // 受け付けなかった手
+
+  public MoveError(int id, Reason reason, Message move) {
+    this.id = id;
+    this.reason = reason;
+    this.message = reason.getText();
+    this.move = move;
+  }
+}
@@ -12,7 +12,7 @@ import lombok.Data;
 @Entity
 public class Player {
   @Id
-  @GeneratedValue(strategy = GenerationType.AUTO)
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "pooled")
   private Integer id;
 
   // ゲームID
@@ -31,10 +31,18 @@ public class Player {
   @Column(nullable = true)
   private String cpu;
 
+  // CPUの思考ルーチン名(ユーザの時はnullが入る)
+  @Column(nullable = true)
+  private String engine;
+
   // 残ブロック数
   @Column(nullable = false)
   private Integer zanBlockCount;
 
+  // まだ置いていないブロック(ブロックの種類ごとに1ビット。これを持つ前のプレイヤーはnull)
+  @Column(nullable = true)
+  private Integer remaining;
+
   // ポイント
   @Column(nullable = false)
   private Integer point;
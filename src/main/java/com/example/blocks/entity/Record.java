@@ -5,14 +5,22 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
 
 import lombok.Data;
 
+/**
+ * 1手の記録
+ *
+ * ゲームの盤面、ポイント、パスはこの記録を順番に打ち直して作る(GameStateStore)。
+ */
 @Data
 @Entity
+@Table(indexes = @Index(columnList = "gameId, number"))
 public class Record {
   @Id
-  @GeneratedValue(strategy = GenerationType.AUTO)
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "pooled")
   private Integer id;
 
   // ゲームID
@@ -23,6 +31,10 @@ public class Record {
   @Column(nullable = false)
   private Integer number;
 
+  // プレイヤー番号(これを持つ前の記録はnull)
+  @Column(nullable = true)
+  private Integer player;
+
   // ブロック
   @Column(nullable = true)
   private Integer blockType;
@@ -39,6 +51,10 @@ public class Record {
   @Column(nullable = true)
   private Integer angle;
 
+  // 反転
+  @Column(columnDefinition = "tinyint(1) default 0")
+  private boolean flip;
+
   // パス
   @Column(columnDefinition = "tinyint(1) default 0")
   private boolean pass;
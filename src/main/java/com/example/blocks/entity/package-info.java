@@ -0,0 +1,12 @@
+/**
+ * IDはこれまでと同じ hibernate_sequence から50個ずつまとめて取る(pooled-lo なので取った値から使い始め、
+ * 1個ずつ取る古いエンティティとも重ならない)。挿入を JDBC のバッチにまとめられるように IDENTITY は使わない。
+ */
+@GenericGenerator(name = "pooled", strategy = "enhanced-sequence", parameters = {
+    @Parameter(name = "sequence_name", value = "hibernate_sequence"),
+    @Parameter(name = "increment_size", value = "50"),
+    @Parameter(name = "optimizer", value = "pooled-lo") })
+package com.example.blocks.entity;
+
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
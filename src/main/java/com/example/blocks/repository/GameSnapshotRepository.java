@@ -0,0 +1,12 @@
+package com.example.blocks.repository;
+
+import com.example.blocks.entity.GameSnapshot;
+
+import org.springframework.data.repository.CrudRepository;
+
+public interface GameSnapshotRepository extends CrudRepository<GameSnapshot, Integer> {
+
+  public GameSnapshot findFirstByGameIdOrderByNumberDesc(Integer gameId);
+  public boolean existsByGameIdAndNumber(Integer gameId, Integer number);
+
+}
@@ -1,9 +1,14 @@
 package com.example.blocks.repository;
 
+import java.util.List;
+
 import com.example.blocks.entity.Record;
 
 import org.springframework.data.repository.CrudRepository;
 
 public interface RecordRepository extends CrudRepository<Record, Integer> {
 
+  public List<Record> findByGameIdAndNumberGreaterThanOrderByNumberAsc(Integer gameId, Integer number);
+  public boolean existsByGameIdAndNumber(Integer gameId, Integer number);
+
 }
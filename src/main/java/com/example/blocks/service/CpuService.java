@@ -0,0 +1,165 @@
+package com.example.blocks.service;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.example.blocks.cpu.CpuCost;
+import com.example.blocks.cpu.CpuStrategy;
+import com.example.blocks.cpu.EndgameSolver;
+import com.example.blocks.cpu.OpeningBook;
+import com.example.blocks.engine.Board;
+import com.example.blocks.engine.Move;
+import com.example.blocks.entity.Hand;
+import com.example.blocks.entity.Player;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * CPUの手を考えるサービス
+ *
+ * プレイヤーごとに選ばれた思考ルーチンを使う。blocks.cpu.max-cost より重い思考ルーチンが選ばれていた場合は、
+ * 許されている中で一番重いものに置き換えるので、混んでいるサーバでは軽いCPUだけを動かせる。
+ * 考えるのはゲームのメールボックスとは別のスレッド(blocks.cpu.threads)で、待つのもタイマーに任せるので、
+ * CPUが考えている間もメールボックスのスレッドは他のゲームを進められる。
+ */
+@Service
+public class CpuService {
+
+  @Autowired
+  private List<CpuStrategy> strategies;
+
+  @Autowired
+  private EndgameSolver endgameSolver;
+
+  @Autowired
+  private OpeningBook openingBook;
+
+  @Value("${blocks.cpu.default-engine:greedy}")
+  private String defaultEngine;
+
+  @Value("${blocks.cpu.max-cost:HIGH}")
+  private CpuCost maxCost;
+
+  // 軽いCPUが一瞬で打つと画面が追えないので、考えた時間がこれより短ければ残りを待つ
+  @Value("${blocks.cpu.min-think-ms:1000}")
+  private long minThinkMs;
+
+  // 0 ならコア数
+  @Value("${blocks.cpu.threads:0}")
+  private int threads;
+
+  private ExecutorService executor;
+
+  // blocks.cpu.min-think-ms まで待ってから返すためのタイマー
+  private ScheduledExecutorService timer;
+
+  @PostConstruct
+  public void init() {
+    int n = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    executor = Executors.newFixedThreadPool(n, daemon("cpu-think-"));
+    timer = Executors.newSingleThreadScheduledExecutor(daemon("cpu-timer-"));
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+    timer.shutdownNow();
+  }
+
+  /**
+   * このサーバで使える思考ルーチン(軽い順)
+   */
+  public List<CpuStrategy> getStrategies() {
+    return strategies.stream()
+        .filter(strategy -> strategy.getCost().compareTo(maxCost) <= 0)
+        .sorted(Comparator.comparing(CpuStrategy::getCost))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * 名前から思考ルーチンを選ぶ
+   */
+  public CpuStrategy getStrategy(String name) {
+    List<CpuStrategy> allowed = getStrategies();
+    for (String candidate : new String[] { name, defaultEngine }) {
+      for (CpuStrategy strategy : strategies) {
+        if (strategy.getName().equals(candidate) && allowed.contains(strategy)) {
+          return strategy;
+        }
+      }
+    }
+    return allowed.get(allowed.size() - 1);
+  }
+
+  /**
+   * CPUの手を作る(呼んだスレッドでは考えず、すぐに返す)
+   *
+   * 定跡にある局面では定跡の手を、終盤で読み切れるときは読み切りの手を、
+   * どちらでもなければプレイヤーの思考ルーチンの手を使う。
+   * 呼んでから blocks.cpu.min-think-ms 経つまでは結果を返さない。
+   */
+  public CompletableFuture<Hand> think(Board board, Player player) {
+    long start = System.currentTimeMillis();
+    CompletableFuture<Hand> result = new CompletableFuture<Hand>();
+    executor.execute(() -> {
+      try {
+        Hand hand = Move.toHand(decide(board, player));
+        long rest = minThinkMs - (System.currentTimeMillis() - start);
+        if (rest > 0) {
+          timer.schedule(() -> result.complete(hand), rest, TimeUnit.MILLISECONDS);
+        } else {
+          result.complete(hand);
+        }
+      } catch (RuntimeException e) {
+        result.completeExceptionally(e);
+      }
+    });
+    return result;
+  }
+
+  private int decide(Board board, Player player) {
+    CpuStrategy strategy = getStrategy(player.getEngine());
+    int move = openingBook.lookup(board, player.getNumber());
+    if (move != OpeningBook.MISS && !isLegal(board, player.getNumber(), move)) {
+      // ハッシュの衝突などで置けない手が出てきたら探索に任せる
+      move = OpeningBook.MISS;
+    }
+    if (move == OpeningBook.MISS) {
+      // 読み切りにかける手間は思考ルーチンの重さに合わせる(軽いCPUは読み切らない)
+      move = endgameSolver.solve(board, player.getNumber(), strategy.getCost());
+    }
+    if (move == EndgameSolver.UNSOLVED) {
+      move = strategy.think(board, player.getNumber(), ThreadLocalRandom.current());
+    }
+    return move;
+  }
+
+  private boolean isLegal(Board board, int player, int move) {
+    return move != Move.PASS && (board.getRemaining(player) & (1 << Move.blockType(move))) != 0
+        && board.canPlace(player, Move.orientation(move), Move.x(move), Move.y(move));
+  }
+
+  private static ThreadFactory daemon(String prefix) {
+    AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+}
@@ -0,0 +1,20 @@
+package com.example.blocks.service;
+
+/**
+ * ゲームの状態をDBから読み直した(GameStateStore が発行する)
+ *
+ * 取り消したあとや再起動したあとに読み直したゲームがCPUの番なら、受け取った側で考え直させる。
+ */
+public class GameLoadedEvent {
+
+  private final int gameId;
+
+  public GameLoadedEvent(int gameId) {
+    this.gameId = gameId;
+  }
+
+  public int getGameId() {
+    return gameId;
+  }
+
+}
@@ -0,0 +1,107 @@
+package com.example.blocks.service;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * ゲームごとの処理待ちの列(メールボックス)
+ *
+ * 同じゲームへの処理は受け付けた順に1つずつ実行し、違うゲームの処理は共有のスレッドで並列に実行する。
+ * 処理待ちがあるゲームだけがメールボックスを持ち(mailboxes にあれば実行中)、空になったら消すので、
+ * ゲームの数だけスレッドやキューを持ち続けることはない。
+ * 1つのゲームがスレッドを使い続けないように、1回に実行するのは blocks.mailbox.batch-size 件までにして後ろに並び直す。
+ * スレッドはコア数しかないので、処理の中では待たない(CPUの思考などは別のスレッドで行い、結果をメールボックスに入れる)。
+ */
+@Service
+public class GameMailbox {
+
+  // 0 ならコア数
+  @Value("${blocks.mailbox.threads:0}")
+  private int threads;
+
+  @Value("${blocks.mailbox.batch-size:8}")
+  private int batchSize;
+
+  // ゲームID -> 処理待ち。キューの出し入れは compute の中だけで行う
+  private final ConcurrentHashMap<Integer, Queue<Runnable>> mailboxes = new ConcurrentHashMap<Integer, Queue<Runnable>>();
+
+  private ExecutorService executor;
+
+  @PostConstruct
+  public void init() {
+    int n = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    AtomicInteger count = new AtomicInteger();
+    ThreadFactory factory = runnable -> {
+      Thread thread = new Thread(runnable, "game-mailbox-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    executor = Executors.newFixedThreadPool(n, factory);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * ゲームの処理待ちの最後に加える
+   */
+  public void submit(int gameId, Runnable task) {
+    boolean[] start = new boolean[1];
+    mailboxes.compute(gameId, (id, queue) -> {
+      if (queue == null) {
+        queue = new ArrayDeque<Runnable>();
+        start[0] = true;
+      }
+      queue.add(task);
+      return queue;
+    });
+    if (start[0]) {
+      executor.execute(() -> drain(gameId));
+    }
+  }
+
+  private void drain(int gameId) {
+    for (int i = 0; i < batchSize; i++) {
+      Runnable task = poll(gameId);
+      if (task == null) {
+        return;
+      }
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        System.out.println("ERROR! game mailbox task failed! id=" + gameId + ", " + e);
+        e.printStackTrace();
+      }
+    }
+    // まだ残っていれば他のゲームの後ろに並び直す
+    if (mailboxes.containsKey(gameId)) {
+      executor.execute(() -> drain(gameId));
+    }
+  }
+
+  /**
+   * 次の処理を取り出す。空ならメールボックスを消して null
+   */
+  private Runnable poll(int gameId) {
+    Runnable[] task = new Runnable[1];
+    mailboxes.computeIfPresent(gameId, (id, queue) -> {
+      task[0] = queue.poll();
+      return task[0] == null ? null : queue;
+    });
+    return task[0];
+  }
+
+}
@@ -0,0 +1,238 @@
+package com.example.blocks.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.example.blocks.engine.Board;
+import com.example.blocks.engine.Variant;
+import com.example.blocks.entity.Game;
+import com.example.blocks.entity.Player;
+
+/**
+ * メモリに置いたゲームの状態
+ *
+ * 手番とカウンター(Game)、プレイヤーごとのポイントとパス(Player)、盤面のマスクと残りのブロック(Board)を持つ。
+ * GameStateStore が持っている元の状態は GameStateStore の中でだけ書き換え、外にはコピーを渡す。
+ */
+public class GameState {
+
+  private final Game game;
+
+  // プレイヤー番号 - 1 の順
+  private final Player[] players;
+
+  private final Board board;
+
+  // 最後のスナップショットのあとに記録した手の数
+  private int sinceSnapshot;
+
+  // まだDBに書いていない変更(GameStateStore#commit でまとめて書く)
+  private final List<Object> inserts = new ArrayList<Object>();
+  private boolean gameChanged;
+  private final boolean[] playerChanged;
+
+  // 取り出したがまだDBに書けていない回数(write-behind のとき)
+  private int flushing;
+
+  // 失敗した手ごと捨てた(DBに書き終わったら読み直す)
+  private volatile boolean discarded;
+
+  GameState(Game game, Player[] players, Board board) {
+    this.game = game;
+    this.players = players;
+    this.board = board;
+    this.playerChanged = new boolean[players.length];
+  }
+
+  /**
+   * 新しい盤面で始める
+   */
+  GameState(Game game, List<Player> players) {
+    this(game, players, new Board(game.getVariant()));
+  }
+
+  /**
+   * 指定した盤面から始める
+   */
+  GameState(Game game, List<Player> players, Board board) {
+    this(game, new Player[game.getVariant().getPlayerNum()], board);
+    for (Player player : players) {
+      this.players[player.getNumber() - 1] = player;
+    }
+  }
+
+  public int getId() {
+    return game.getId();
+  }
+
+  public Variant getVariant() {
+    return game.getVariant();
+  }
+
+  public Game getGame() {
+    return game;
+  }
+
+  public int getNowPlayer() {
+    return game.getNowPlayer();
+  }
+
+  public int getCounter() {
+    return game.getCounter();
+  }
+
+  /**
+   * プレイヤー番号(1始まり)のプレイヤー
+   */
+  public Player getPlayer(int number) {
+    return players[number - 1];
+  }
+
+  /**
+   * プレイヤー番号の順のプレイヤー
+   */
+  public List<Player> getPlayers() {
+    List<Player> list = new ArrayList<Player>(players.length);
+    for (Player player : players) {
+      list.add(player);
+    }
+    return list;
+  }
+
+  public Board getBoard() {
+    return board;
+  }
+
+  int getSinceSnapshot() {
+    return sinceSnapshot;
+  }
+
+  void setSinceSnapshot(int sinceSnapshot) {
+    this.sinceSnapshot = sinceSnapshot;
+  }
+
+  /**
+   * 新しく保存する記録などを足す
+   */
+  void insert(Object entity) {
+    inserts.add(entity);
+  }
+
+  void gameChanged() {
+    gameChanged = true;
+  }
+
+  void playerChanged(int number) {
+    playerChanged[number - 1] = true;
+  }
+
+  void flushStarted() {
+    flushing++;
+  }
+
+  void flushFinished() {
+    flushing--;
+  }
+
+  boolean isFlushing() {
+    return flushing > 0;
+  }
+
+  /**
+   * まだDBに書いていない変更を捨て、以後は使わない印を付ける
+   */
+  void discard() {
+    inserts.clear();
+    gameChanged = false;
+    Arrays.fill(playerChanged, false);
+    discarded = true;
+  }
+
+  boolean isDiscarded() {
+    return discarded;
+  }
+
+  /**
+   * まだDBに書けていない変更があるか(取り出して書いている途中のものも含む)
+   */
+  boolean isDirty() {
+    if (gameChanged || !inserts.isEmpty() || flushing > 0) {
+      return true;
+    }
+    for (boolean changed : playerChanged) {
+      if (changed) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * 新しく保存するものを取り出す
+   */
+  List<Object> takeInserts() {
+    List<Object> list = new ArrayList<Object>(inserts);
+    inserts.clear();
+    return list;
+  }
+
+  /**
+   * 変わったゲームとプレイヤーのコピーを取り出す(書いている間に元の状態が変わっても影響しない)
+   */
+  List<Object> takeUpdates() {
+    List<Object> list = new ArrayList<Object>();
+    if (gameChanged) {
+      list.add(copy(game));
+      gameChanged = false;
+    }
+    for (int i = 0; i < players.length; i++) {
+      if (playerChanged[i]) {
+        list.add(copy(players[i]));
+        playerChanged[i] = false;
+      }
+    }
+    return list;
+  }
+
+  /**
+   * 丸ごとコピーする(以後、元の状態が変わっても影響しない)
+   */
+  GameState copy() {
+    Player[] copied = new Player[players.length];
+    for (int i = 0; i < players.length; i++) {
+      copied[i] = copy(players[i]);
+    }
+    return new GameState(copy(game), copied, new Board(board));
+  }
+
+  private static Game copy(Game game) {
+    Game copy = new Game();
+    copy.setId(game.getId());
+    copy.setDate(game.getDate());
+    copy.setNowPlayer(game.getNowPlayer());
+    copy.setCounter(game.getCounter());
+    copy.setAuthor(game.getAuthor());
+    copy.setVariant(game.getVariant());
+    return copy;
+  }
+
+  private static Player copy(Player player) {
+    if (player == null) {
+      return null;
+    }
+    Player copy = new Player();
+    copy.setId(player.getId());
+    copy.setGameId(player.getGameId());
+    copy.setNumber(player.getNumber());
+    copy.setAccountName(player.getAccountName());
+    copy.setCpu(player.getCpu());
+    copy.setEngine(player.getEngine());
+    copy.setZanBlockCount(player.getZanBlockCount());
+    copy.setRemaining(player.getRemaining());
+    copy.setPoint(player.getPoint());
+    copy.setPass(player.isPass());
+    return copy;
+  }
+
+}
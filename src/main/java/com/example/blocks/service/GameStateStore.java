@@ -0,0 +1,521 @@
+package com.example.blocks.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import com.example.blocks.engine.Board;
+import com.example.blocks.engine.Orientation;
+import com.example.blocks.engine.Pieces;
+import com.example.blocks.entity.Block;
+import com.example.blocks.entity.Game;
+import com.example.blocks.entity.GameSnapshot;
+import com.example.blocks.entity.Player;
+import com.example.blocks.entity.Record;
+import com.example.blocks.repository.BlockRepository;
+import com.example.blocks.repository.GameRepository;
+import com.example.blocks.repository.GameSnapshotRepository;
+import com.example.blocks.repository.PlayerRepository;
+import com.example.blocks.repository.RecordRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import org.hibernate.Session;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * 対局中のゲームの状態をメモリに持つサービス
+ *
+ * 盤面、ポイント、パスの元になるのは1手ごとの記録(Record)で、ブロックを置く、パスするたびに記録を1件足す。
+ * 置く、パスする、手番を進めるといった変更はまずメモリだけを変え、commit でまとめて1つのトランザクションで書く。
+ * blocks.persistence.mode=write-behind のときは commit ではローカルのジャーナル(MoveJournal)に渡すだけで、
+ * DBにはあとでまとめて書く。
+ * blocks.game-state.snapshot-every 手ごとにその時点の状態をスナップショット(GameSnapshot)として保存し、
+ * ゲームを読み込むときは最新のスナップショットとそれより後の記録だけを読んで打ち直す。
+ * 手番は game テーブル、参加者は player テーブルから読む。残りのブロック(ビットマスク)とポイントは
+ * 一覧の表示用に player テーブルにも書く。
+ * 一度読み込んだゲームは以降のリクエストではDBを読まない。しばらく参照されないゲームと、
+ * blocks.game-state.max-games を超えた分は捨て、次に参照されたときに読み直す。
+ * DBから読み直したときは GameLoadedEvent を発行する(CPUの番なら考え直させるため)。
+ */
+@Service
+public class GameStateStore {
+
+  @Autowired
+  private GameRepository gameRepository;
+
+  @Autowired
+  private PlayerRepository playerRepository;
+
+  @Autowired
+  private BlockRepository blockRepository;
+
+  @Autowired
+  private RecordRepository recordRepository;
+
+  @Autowired
+  private GameSnapshotRepository gameSnapshotRepository;
+
+  @Autowired
+  private TransactionTemplate transactionTemplate;
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  @Autowired
+  private ApplicationEventPublisher eventPublisher;
+
+  @Value("${blocks.game-state.max-games:1000}")
+  private long maxGames;
+
+  @Value("${blocks.game-state.idle-minutes:30}")
+  private long idleMinutes;
+
+  @Value("${blocks.game-state.snapshot-every:20}")
+  private int snapshotEvery;
+
+  // sync: commit でDBに書き終えてから返す、write-behind: ジャーナルに渡してすぐに返す
+  @Value("${blocks.persistence.mode:sync}")
+  private String persistenceMode;
+
+  @Value("${blocks.persistence.journal:journal/moves.journal}")
+  private String journalPath;
+
+  @Value("${blocks.persistence.flush-interval-ms:200}")
+  private long flushIntervalMs;
+
+  @Value("${blocks.persistence.batch-size:500}")
+  private int flushBatchSize;
+
+  @Value("${blocks.persistence.segment-bytes:16777216}")
+  private long segmentBytes;
+
+  // write-behind のときだけ使う
+  private MoveJournal journal;
+
+  private Cache<Integer, GameState> states;
+
+  // まだDBに書いていない変更があるゲーム(キャッシュから捨てられても、書くまではこちらを使う)
+  private final ConcurrentHashMap<Integer, GameState> uncommitted = new ConcurrentHashMap<Integer, GameState>();
+
+  @PostConstruct
+  public void init() throws IOException {
+    states = Caffeine.newBuilder()
+        .maximumSize(maxGames)
+        .expireAfterAccess(Duration.ofMinutes(idleMinutes))
+        .build();
+
+    if ("write-behind".equals(persistenceMode)) {
+      // 前回書き切れなかった分を書いてから受け付ける
+      journal = new MoveJournal(Paths.get(journalPath), flushIntervalMs, flushBatchSize, segmentBytes,
+          this::write);
+      journal.recover(this::recover);
+    } else if (!"sync".equals(persistenceMode)) {
+      throw new IllegalArgumentException("blocks.persistence.mode must be sync or write-behind: " + persistenceMode);
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() throws InterruptedException, IOException {
+    if (journal != null) {
+      journal.close(10_000);
+    }
+  }
+
+  /**
+   * ゲームの状態のコピーを返す(ゲームがなければ null)
+   */
+  public GameState get(int gameId) {
+    GameState state = load(gameId);
+    if (state == null) {
+      return null;
+    }
+    synchronized (state) {
+      return state.copy();
+    }
+  }
+
+  /**
+   * 盤面のコピーを返す(ゲームがなければ null)
+   */
+  public Board getBoard(int gameId) {
+    GameState state = load(gameId);
+    if (state == null) {
+      return null;
+    }
+    synchronized (state) {
+      return new Board(state.getBoard());
+    }
+  }
+
+  /**
+   * ゲームとプレイヤーを1つのトランザクションで保存し、メモリに置く(DBから読み直さない)
+   *
+   * IDはまとめて取ってあるので、挿入はコミットのときにテーブルごとのバッチになる。
+   * メモリに置くのはコミットできてから。
+   */
+  @Transactional
+  public Game create(Game game, List<Player> players) {
+    Game saved = gameRepository.save(game);
+    for (Player player : players) {
+      player.setGameId(saved.getId());
+    }
+    List<Player> savedPlayers = new ArrayList<Player>();
+    playerRepository.saveAll(players).forEach(savedPlayers::add);
+
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        states.put(saved.getId(), new GameState(saved, savedPlayers));
+      }
+    });
+    return saved;
+  }
+
+  /**
+   * ブロックを置いて記録する(置けるかどうかのチェックはしない。置き済みのブロックなら何もしない)
+   */
+  public void place(int gameId, int number, int blockType, int angle, boolean flip, int x, int y) {
+    GameState state = load(gameId);
+    if (state == null) {
+      return;
+    }
+    synchronized (state) {
+      Board board = state.getBoard();
+      if ((board.getRemaining(number) & (1 << blockType)) == 0) {
+        return;
+      }
+      board.place(number, Pieces.get(blockType, angle, flip), x, y);
+      Player player = state.getPlayer(number);
+      score(player, board);
+
+      Record record = new Record();
+      record.setPlayer(number);
+      record.setBlockType(blockType);
+      record.setX(x);
+      record.setY(y);
+      record.setAngle(angle);
+      record.setFlip(flip);
+      append(state, record);
+      state.playerChanged(number);
+      uncommitted.put(gameId, state);
+    }
+  }
+
+  /**
+   * パスして記録する(一度パスしたら以後は打たない)
+   */
+  public void pass(int gameId, int number) {
+    GameState state = load(gameId);
+    if (state == null) {
+      return;
+    }
+    synchronized (state) {
+      Player player = state.getPlayer(number);
+      if (player.isPass() == false) {
+        player.setPass(true);
+
+        Record record = new Record();
+        record.setPlayer(number);
+        record.setPass(true);
+        append(state, record);
+        state.playerChanged(number);
+        uncommitted.put(gameId, state);
+      }
+    }
+  }
+
+  /**
+   * 次のプレイヤーに手番を移し、移したあとの状態のコピーを返す
+   */
+  public GameState goNextPlayer(int gameId) {
+    GameState state = load(gameId);
+    if (state == null) {
+      return null;
+    }
+    synchronized (state) {
+      Game game = state.getGame();
+      game.goNextPlayer();
+      state.gameChanged();
+      uncommitted.put(gameId, state);
+      return state.copy();
+    }
+  }
+
+  /**
+   * place, pass, goNextPlayer でメモリだけを変えた分を、1つのトランザクションでまとめてDBに書く
+   *
+   * 記録(とスナップショット)は挿入、プレイヤーと手番は読み直さずに全ての列を更新するので、どちらもテーブルごとの
+   * バッチになる。書けなかったときはメモリの状態を捨て、次に参照されたときにDBから読み直す(書けた手までに戻る)。
+   * write-behind のときはジャーナルに渡すだけで、DBに書けるまではメモリの状態を捨てない。
+   */
+  public void commit(int gameId) {
+    GameState state = uncommitted.get(gameId);
+    if (state == null) {
+      return;
+    }
+    List<Object> inserts;
+    List<Object> updates;
+    synchronized (state) {
+      inserts = state.takeInserts();
+      updates = state.takeUpdates();
+      if (journal != null) {
+        state.flushStarted();
+        journal.append(inserts, updates, () -> flushed(gameId, state));
+        return;
+      }
+    }
+    try {
+      write(inserts, updates);
+    } catch (RuntimeException e) {
+      discard(gameId);
+      throw e;
+    }
+    synchronized (state) {
+      if (!state.isDirty()) {
+        uncommitted.remove(gameId, state);
+      }
+    }
+  }
+
+  /**
+   * まだDBに書いていない変更ごとメモリの状態を捨てる(途中で失敗した手を取り消す)
+   *
+   * write-behind でこのゲームの commit 済みの分がまだDBに書けていないときは、待たずに捨てた印だけを付ける。
+   * 書けるまではゲームがないものとして扱い、書けたら捨てて次に参照されたときにDBから読み直す。
+   */
+  public void discard(int gameId) {
+    GameState state = uncommitted.get(gameId);
+    if (state != null) {
+      synchronized (state) {
+        state.discard();
+        if (state.isFlushing()) {
+          return;
+        }
+      }
+    }
+    uncommitted.remove(gameId);
+    states.invalidate(gameId);
+  }
+
+  /**
+   * ジャーナルに渡した分がDBに書けた
+   */
+  private void flushed(int gameId, GameState state) {
+    synchronized (state) {
+      state.flushFinished();
+      if (state.isDiscarded() && !state.isFlushing()) {
+        uncommitted.remove(gameId, state);
+        states.asMap().remove(gameId, state);
+      } else if (!state.isDirty()) {
+        uncommitted.remove(gameId, state);
+      }
+    }
+  }
+
+  /**
+   * 挿入するものと、読み直さずに全ての列を更新するものを1つのトランザクションで書く
+   */
+  private void write(List<Object> inserts, List<Object> updates) {
+    transactionTemplate.executeWithoutResult(status -> {
+      for (Object entity : inserts) {
+        entityManager.persist(entity);
+      }
+      Session session = entityManager.unwrap(Session.class);
+      for (Object entity : updates) {
+        session.update(entity);
+      }
+    });
+  }
+
+  /**
+   * 前回の起動でジャーナルに残った分を書く。DBに書けていた記録とスナップショットは飛ばす
+   */
+  private void recover(List<Object> inserts, List<Object> updates) {
+    List<Object> missing = new ArrayList<Object>();
+    for (Object entity : inserts) {
+      boolean exists = entity instanceof Record
+          ? recordRepository.existsByGameIdAndNumber(((Record) entity).getGameId(), ((Record) entity).getNumber())
+          : gameSnapshotRepository.existsByGameIdAndNumber(((GameSnapshot) entity).getGameId(),
+              ((GameSnapshot) entity).getNumber());
+      if (!exists) {
+        missing.add(entity);
+      }
+    }
+    write(missing, updates);
+    System.out.println("journal recovered: inserts=" + missing.size() + "/" + inserts.size() + ", updates="
+        + updates.size());
+  }
+
+  private GameState load(int gameId) {
+    GameState dirty = uncommitted.get(gameId);
+    if (dirty != null) {
+      // 捨てた状態はDBに書けて読み直せるようになるまで使わない
+      return dirty.isDiscarded() ? null : dirty;
+    }
+    AtomicBoolean loaded = new AtomicBoolean();
+    GameState cached = states.get(gameId, id -> {
+      loaded.set(true);
+      Optional<Game> ret = gameRepository.findById(id);
+      if (!ret.isPresent()) {
+        return null;
+      }
+      Game game = ret.get();
+      List<Player> players = playerRepository.findByGameId(id);
+
+      // 最新のスナップショットから、それより後の記録を打ち直す
+      GameSnapshot snapshot = gameSnapshotRepository.findFirstByGameIdOrderByNumberDesc(id);
+      List<Record> records = recordRepository.findByGameIdAndNumberGreaterThanOrderByNumberAsc(id,
+          snapshot == null ? -1 : snapshot.getNumber());
+      if (snapshot == null && records.stream().anyMatch(record -> record.getPlayer() == null)) {
+        return migrate(game, players);
+      }
+      GameState state = snapshot == null ? start(game, players) : restore(game, players, snapshot);
+      for (Record record : records) {
+        replay(state, record);
+      }
+      state.setSinceSnapshot(records.size());
+      return state;
+    });
+    // キャッシュに置いてから知らせる
+    if (loaded.get() && cached != null) {
+      eventPublisher.publishEvent(new GameLoadedEvent(gameId));
+    }
+    return cached;
+  }
+
+  /**
+   * 記録にプレイヤー番号がなかった頃のゲームは、セット済みのブロック(block テーブル)から盤面を作り、
+   * 今の状態をスナップショットにする(以後はスナップショットと新しい記録から読み込む)。
+   * 新しいゲームは block テーブルを使わない
+   */
+  private GameState migrate(Game game, List<Player> players) {
+    GameState state = new GameState(game, players);
+    Board board = state.getBoard();
+    for (Block block : blockRepository.findByGameIdAndStatus(game.getId(), Block.STATUS_SETTED)) {
+      Orientation orientation = Pieces.get(block.getBlockType(), block.getAngle() == null ? 0 : block.getAngle(),
+          block.isFlip());
+      board.place(block.getPlayer(), orientation, block.getX(), block.getY());
+    }
+    gameSnapshotRepository.save(snapshot(state, game.getCounter() - 1));
+    return state;
+  }
+
+  private void replay(GameState state, Record record) {
+    Player player = state.getPlayer(record.getPlayer());
+    if (record.isPass()) {
+      player.setPass(true);
+      return;
+    }
+    Board board = state.getBoard();
+    board.place(record.getPlayer(), Pieces.get(record.getBlockType(), record.getAngle(), record.isFlip()),
+        record.getX(), record.getY());
+    score(player, board);
+  }
+
+  /**
+   * 盤面から残りのブロック、残数、ポイントを決める(全て置いたら以後は打たない)
+   */
+  private void score(Player player, Board board) {
+    player.setRemaining(board.getRemaining(player.getNumber()));
+    player.setZanBlockCount(Integer.bitCount(player.getRemaining()));
+    player.setPoint(board.countCells(player.getNumber()));
+    player.setPass(player.isPass() || player.getZanBlockCount() == 0);
+  }
+
+  /**
+   * 今の手順のカウンターで記録を足し、blocks.game-state.snapshot-every 手ごとにスナップショットも足す(commit で保存する)
+   */
+  private void append(GameState state, Record record) {
+    record.setGameId(state.getId());
+    record.setNumber(state.getCounter());
+    state.insert(record);
+
+    state.setSinceSnapshot(state.getSinceSnapshot() + 1);
+    if (state.getSinceSnapshot() >= snapshotEvery) {
+      state.insert(snapshot(state, record.getNumber()));
+    }
+  }
+
+  /**
+   * number 番目までの記録を打ち直した状態を作る
+   *
+   * 中身はプレイヤーごとに、残りのブロック(int)、パス(byte)、置いたセル(行ごとの long)を並べたもの。
+   */
+  private GameSnapshot snapshot(GameState state, int number) {
+    Board board = state.getBoard();
+    ByteBuffer buffer = ByteBuffer.allocate(board.getPlayerNum() * (Integer.BYTES + 1 + board.getHeight() * Long.BYTES));
+    long[] rows = new long[board.getHeight()];
+    for (int player = 1; player <= board.getPlayerNum(); player++) {
+      buffer.putInt(board.getRemaining(player));
+      buffer.put((byte) (state.getPlayer(player).isPass() ? 1 : 0));
+      board.own(player, rows);
+      for (long row : rows) {
+        buffer.putLong(row);
+      }
+    }
+
+    GameSnapshot snapshot = new GameSnapshot();
+    snapshot.setGameId(state.getId());
+    snapshot.setNumber(number);
+    snapshot.setData(buffer.array());
+    state.setSinceSnapshot(0);
+    return snapshot;
+  }
+
+  /**
+   * 何も置いていない状態から始める(player テーブルのポイントなどは使わない)
+   */
+  private GameState start(Game game, List<Player> players) {
+    GameState state = new GameState(game, players);
+    for (Player player : state.getPlayers()) {
+      player.setPass(false);
+      score(player, state.getBoard());
+    }
+    return state;
+  }
+
+  private GameState restore(Game game, List<Player> players, GameSnapshot snapshot) {
+    int playerNum = game.getVariant().getPlayerNum();
+    int height = game.getVariant().getHeight();
+    ByteBuffer buffer = ByteBuffer.wrap(snapshot.getData());
+    int[] remaining = new int[playerNum];
+    boolean[] pass = new boolean[playerNum];
+    long[][] own = new long[playerNum][height];
+    for (int p = 0; p < playerNum; p++) {
+      remaining[p] = buffer.getInt();
+      pass[p] = buffer.get() != 0;
+      for (int y = 0; y < height; y++) {
+        own[p][y] = buffer.getLong();
+      }
+    }
+
+    GameState state = new GameState(game, players, Board.restore(game.getVariant(), own, remaining));
+    for (int p = 0; p < playerNum; p++) {
+      Player player = state.getPlayer(p + 1);
+      player.setPass(pass[p]);
+      score(player, state.getBoard());
+    }
+    return state;
+  }
+
+}
@@ -0,0 +1,137 @@
+package com.example.blocks.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.PostConstruct;
+
+import com.example.blocks.cpu.ParanoidCpuStrategy;
+import com.example.blocks.engine.Move;
+import com.example.blocks.entity.Hint;
+import com.example.blocks.entity.HintInfo;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * 手番のプレイヤーにおすすめの手(ヒント)を出すサービス
+ *
+ * パラノイド探索で上位の手に評価値を付ける。結果は (ゲームID, 手順のカウンター) ごとにキャッシュするので、
+ * 同じ局面で何度求められても(観戦者が見ても)探索は1回だけで、同時に求められた場合も他のリクエストは結果を待つ。
+ * キャッシュより長い時間を指定されたときだけ読み直す。
+ * キャッシュに置くのは探索中の結果(CompletableFuture)で、探索はキャッシュのロックの外で行う。
+ */
+@Service
+public class HintService {
+
+  // 1回の探索で評価値を付ける手の数(返す数の上限)
+  public static final int MAX_COUNT = 16;
+
+  @Autowired
+  private ParanoidCpuStrategy paranoidCpuStrategy;
+
+  @Value("${blocks.hint.default-budget-ms:500}")
+  private long defaultBudgetMs;
+
+  @Value("${blocks.hint.max-budget-ms:3000}")
+  private long maxBudgetMs;
+
+  @Value("${blocks.hint.cache.max-size:1000}")
+  private long maxSize;
+
+  private AsyncCache<Long, HintInfo> cache;
+
+  @PostConstruct
+  public void init() {
+    cache = Caffeine.newBuilder().maximumSize(maxSize).buildAsync();
+  }
+
+  /**
+   * state の局面で手番のプレイヤーへのヒントを返す
+   *
+   * @param count 返す手の数(1〜MAX_COUNT)
+   * @param budgetMs 考える時間(0以下なら blocks.hint.default-budget-ms、上限は blocks.hint.max-budget-ms)
+   */
+  public HintInfo get(GameState state, int count, long budgetMs) {
+    long budget = Math.min(budgetMs > 0 ? budgetMs : defaultBudgetMs, maxBudgetMs);
+    long key = key(state.getId(), state.getCounter());
+    HintInfo info;
+    for (;;) {
+      // 使える結果(探索中を含む)がなければ、自分で探索する印を置く
+      CompletableFuture<HintInfo> created = new CompletableFuture<HintInfo>();
+      CompletableFuture<HintInfo> future = cache.asMap().compute(key,
+          (k, cached) -> cached == null || cached.isDone() && !isEnough(cached, state.getNowPlayer(), budget)
+              ? created : cached);
+      if (future == created) {
+        try {
+          created.complete(analyze(state, budget));
+        } catch (RuntimeException e) {
+          created.completeExceptionally(e);
+          throw e;
+        }
+      }
+      // 探索中だったものが失敗したか足りなければ(短い時間だったなど)、終わってから探索し直す
+      future.handle((result, e) -> null).join();
+      if (isEnough(future, state.getNowPlayer(), budget)) {
+        info = future.join();
+        break;
+      }
+    }
+
+    HintInfo result = new HintInfo();
+    result.setId(info.getId());
+    result.setCounter(info.getCounter());
+    result.setPlayer(info.getPlayer());
+    result.setBudgetMs(info.getBudgetMs());
+    result.setHints(info.getHints().subList(0, Math.min(Math.max(count, 1), info.getHints().size())));
+    return result;
+  }
+
+  /**
+   * 手を取り消したときに、そのゲームのキャッシュを捨てる(同じカウンターが違う局面になるため)
+   *
+   * 手が進むだけならカウンターがキーに入っているので古いものは使われず、上限を超えた分から捨てられる。
+   */
+  public void invalidate(int gameId) {
+    cache.asMap().keySet().removeIf(key -> (int) (key >>> 32) == gameId);
+  }
+
+  private static boolean isEnough(CompletableFuture<HintInfo> future, int player, long budgetMs) {
+    if (future.isCompletedExceptionally()) {
+      return false;
+    }
+    HintInfo info = future.join();
+    return info.getPlayer() == player && info.getBudgetMs() >= budgetMs;
+  }
+
+  /**
+   * state の盤面を探索する(キーの手順のカウンターと同じ局面)
+   */
+  private HintInfo analyze(GameState state, long budgetMs) {
+    int[] moves = new int[MAX_COUNT];
+    int[] scores = new int[MAX_COUNT];
+    int n = paranoidCpuStrategy.analyze(state.getBoard(), state.getNowPlayer(), budgetMs, moves, scores);
+    List<Hint> hints = new ArrayList<Hint>();
+    for (int i = 0; i < n; i++) {
+      hints.add(new Hint(Move.toHand(moves[i]), scores[i]));
+    }
+
+    HintInfo info = new HintInfo();
+    info.setId(state.getId());
+    info.setCounter(state.getCounter());
+    info.setPlayer(state.getNowPlayer());
+    info.setBudgetMs(budgetMs);
+    info.setHints(Collections.unmodifiableList(hints));
+    return info;
+  }
+
+  private static long key(int gameId, int counter) {
+    return (long) gameId << 32 | counter;
+  }
+
+}
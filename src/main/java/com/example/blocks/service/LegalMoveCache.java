@@ -0,0 +1,66 @@
+package com.example.blocks.service;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+
+import com.example.blocks.engine.MoveGenerator;
+import com.example.blocks.entity.Hand;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 置ける手のキャッシュ
+ *
+ * (ゲームID, 手順のカウンター, プレイヤー番号) ごとに置ける手の一覧を持つ。
+ * 手はキーを作ったのと同じ状態(GameState のコピー)の盤面から求めるので、キーと中身の局面は必ず同じになる。
+ * 同じキーを同時に求められた場合も計算は1回だけで、他のリクエストはその結果を待つ。
+ */
+@Component
+public class LegalMoveCache {
+
+  @Value("${blocks.legal-move-cache.max-size:10000}")
+  private long maxSize;
+
+  private Cache<Long, List<Hand>> cache;
+
+  @PostConstruct
+  public void init() {
+    cache = Caffeine.newBuilder().maximumSize(maxSize).build();
+  }
+
+  /**
+   * state の局面で置ける手の一覧を返す(変更不可)
+   */
+  public List<Hand> get(GameState state, int player) {
+    return cache.get(key(state.getId(), state.getCounter(), player), k -> {
+      List<Hand> hands = new MoveGenerator().generateHands(state.getBoard(), player);
+      return Collections.unmodifiableList(hands);
+    });
+  }
+
+  /**
+   * 置ける手がなくパスするしかないかどうか
+   */
+  public boolean isPass(GameState state, int player) {
+    return get(state, player).isEmpty();
+  }
+
+  /**
+   * 手を取り消したときに、そのゲームのキャッシュを捨てる(同じカウンターが違う局面になるため)
+   *
+   * 手が進むだけならカウンターがキーに入っているので古いものは使われず、上限を超えた分から捨てられる。
+   */
+  public void invalidate(int gameId) {
+    cache.asMap().keySet().removeIf(key -> (int) (key >>> 32) == gameId);
+  }
+
+  private static long key(int gameId, int counter, int player) {
+    return (long) gameId << 32 | (long) counter << 3 | player;
+  }
+
+}
@@ -0,0 +1,452 @@
+package com.example.blocks.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BiConsumer;
+
+import com.example.blocks.entity.Game;
+import com.example.blocks.entity.GameSnapshot;
+import com.example.blocks.entity.Player;
+import com.example.blocks.entity.Record;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * 手の書き込みを後回しにするためのジャーナル(blocks.persistence.mode=write-behind のとき)
+ *
+ * GameStateStore#commit の1回分(挿入するものと更新するもの)を1行の JSON としてローカルのファイルに追記する。
+ * 追記は書き込み用のスレッドがまとめて行い、まとめた分ごとに1回だけ fsync する(グループコミット)。
+ * fsync が済んだ分は書き出し用のスレッドが blocks.persistence.flush-interval-ms ごとに最大
+ * blocks.persistence.batch-size 件ずつ1つのトランザクションでDBに書く。DBに書けなければ同じ分を後で書き直す。
+ * ファイルが blocks.persistence.segment-bytes を超えたら「ファイル名.番号」に名前を変えて閉じ(セグメント)、
+ * 新しいファイルに追記する。閉じたセグメントは中の分が全てDBに書けたら消し、全てDBに書けたらファイルも空にするので、
+ * DBに書くのが追いつかないうちも、ファイルが大きくなり続けることはない。
+ * 起動時に残っているセグメントとファイルの分はDBに書けていない(かもしれない)分で、
+ * recover で古い順に書き直してから使い始める。
+ */
+public class MoveJournal {
+
+  // ジャーナルに書けるエンティティ
+  private static final Map<String, Class<?>> TYPES = new LinkedHashMap<String, Class<?>>();
+  static {
+    for (Class<?> type : new Class<?>[] { Record.class, GameSnapshot.class, Game.class, Player.class }) {
+      TYPES.put(type.getSimpleName(), type);
+    }
+  }
+
+  /**
+   * commit の1回分
+   */
+  static class Entry {
+    final List<Object> inserts;
+    final List<Object> updates;
+    // DBに書けたあとに呼ぶ(なければ null)
+    final Runnable flushed;
+    // ファイルに書いた行(書き直すときはここから作り直す)
+    String line;
+    // 書いたセグメントの番号
+    long segment;
+
+    Entry(List<Object> inserts, List<Object> updates, Runnable flushed) {
+      this.inserts = inserts;
+      this.updates = updates;
+      this.flushed = flushed;
+    }
+  }
+
+  private final Path path;
+  private final long flushIntervalMs;
+  private final int batchSize;
+  private final long segmentBytes;
+  private final BiConsumer<List<Object>, List<Object>> writer;
+  private final ObjectMapper mapper = new ObjectMapper()
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  // ファイルに追記する前と、fsync が済んでDBに書く前
+  private final BlockingQueue<Entry> appending = new LinkedBlockingQueue<Entry>();
+  private final BlockingQueue<Entry> flushing = new LinkedBlockingQueue<Entry>();
+
+  // 受け付けた数とDBに書けた数(this で同期する)
+  private long appended;
+  private long flushed;
+
+  // 追記しているセグメントの番号と、セグメントごとのまだDBに書けていない数(this で同期する。
+  // 番号を変えるのは書き込み用のスレッドだけ。this の中で fileLock を取ることはあるが、逆はしない)
+  private long segment = 1;
+  private final Map<Long, Integer> pending = new HashMap<Long, Integer>();
+
+  // channel の追記、切り詰め、差し替えはこれで同期する
+  private final Object fileLock = new Object();
+  private FileChannel channel;
+  private Thread appender;
+  private Thread flusher;
+  private volatile boolean closed;
+
+  /**
+   * @param segmentBytes ファイルがこの大きさを超えたらセグメントとして閉じる
+   * @param writer 挿入するもの、更新するものを1つのトランザクションでDBに書く
+   */
+  public MoveJournal(Path path, long flushIntervalMs, int batchSize, long segmentBytes,
+      BiConsumer<List<Object>, List<Object>> writer) {
+    this.path = path;
+    this.flushIntervalMs = flushIntervalMs;
+    this.batchSize = batchSize;
+    this.segmentBytes = segmentBytes;
+    this.writer = writer;
+  }
+
+  /**
+   * 前回DBに書き切れなかった分を recovery で書き直し、セグメントを消してファイルを空にしてから
+   * 書き込み用のスレッドを動かす
+   *
+   * @param recovery 挿入するもの、更新するものを書く(すでにDBにあるものは飛ばす)
+   * @return 書き直した行の数
+   */
+  public int recover(BiConsumer<List<Object>, List<Object>> recovery) throws IOException {
+    // 閉じたセグメントを古い順に、最後に追記していたファイル
+    List<Path> files = new ArrayList<Path>(segments().values());
+    if (Files.exists(path)) {
+      files.add(path);
+    }
+
+    int count = 0;
+    List<Object> inserts = new ArrayList<Object>();
+    Map<String, Object> updates = new LinkedHashMap<String, Object>();
+    for (Path file : files) {
+      try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+          Entry entry;
+          try {
+            entry = decode(line);
+          } catch (IOException | RuntimeException e) {
+            // 書いている途中で落ちた最後の行は捨てる
+            System.out.println("WARN! broken journal line is skipped: " + e);
+            continue;
+          }
+          inserts.addAll(entry.inserts);
+          merge(updates, entry.updates);
+          count++;
+        }
+      }
+    }
+    if (count > 0) {
+      recovery.accept(inserts, new ArrayList<Object>(updates.values()));
+    }
+    for (Path file : segments().values()) {
+      Files.delete(file);
+    }
+
+    if (path.getParent() != null) {
+      Files.createDirectories(path.getParent());
+    }
+    channel = open();
+    channel.truncate(0);
+    channel.force(true);
+
+    appender = new Thread(this::appendLoop, "move-journal-append");
+    appender.setDaemon(true);
+    appender.start();
+    flusher = new Thread(this::flushLoop, "move-journal-flush");
+    flusher.setDaemon(true);
+    flusher.start();
+    return count;
+  }
+
+  /**
+   * commit の1回分を受け付ける(ファイルにもDBにもまだ書いていない)
+   *
+   * @param flushed DBに書けたあとに書き出し用のスレッドで呼ぶ(なければ null)
+   */
+  public void append(List<Object> inserts, List<Object> updates, Runnable flushed) {
+    if (closed) {
+      throw new IllegalStateException("journal is closed: " + path);
+    }
+    synchronized (this) {
+      appended++;
+    }
+    appending.add(new Entry(inserts, updates, flushed));
+  }
+
+  /**
+   * ここまでに受け付けた分が全てDBに書けるまで、最大 timeoutMs 待つ
+   *
+   * @return 全て書けたか
+   */
+  public boolean sync(long timeoutMs) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    synchronized (this) {
+      long target = appended;
+      while (flushed < target) {
+        long wait = deadline - System.currentTimeMillis();
+        if (wait <= 0) {
+          return false;
+        }
+        wait(wait);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * 受け付けた分をDBに書いてから止める。timeoutMs 待っても書けなかった分はファイルに残り、次の起動で書き直す
+   */
+  public void close(long timeoutMs) throws InterruptedException, IOException {
+    if (!sync(timeoutMs)) {
+      System.out.println("WARN! journal is closed before all entries are flushed: " + path);
+    }
+    closed = true;
+    appender.interrupt();
+    flusher.interrupt();
+    appender.join();
+    flusher.join();
+    channel.close();
+  }
+
+  private void appendLoop() {
+    List<Entry> group = new ArrayList<Entry>();
+    while (!closed) {
+      try {
+        group.add(appending.take());
+      } catch (InterruptedException e) {
+        return;
+      }
+      // fsync を待っている間に来た分もまとめて書く
+      appending.drainTo(group);
+      try {
+        StringBuilder sb = new StringBuilder();
+        for (Entry entry : group) {
+          entry.line = encode(entry);
+          sb.append(entry.line).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        synchronized (fileLock) {
+          while (buffer.hasRemaining()) {
+            channel.write(buffer);
+          }
+          channel.force(false);
+        }
+      } catch (IOException e) {
+        // ファイルに書けなくてもDBには書く(落ちたときに失うだけ)
+        System.out.println("ERROR! journal append failed! " + path + ", " + e);
+      }
+      synchronized (this) {
+        for (Entry entry : group) {
+          entry.segment = segment;
+        }
+        pending.merge(segment, group.size(), Integer::sum);
+      }
+      flushing.addAll(group);
+      group.clear();
+
+      try {
+        rotate();
+      } catch (IOException e) {
+        System.out.println("ERROR! journal rotate failed! " + path + ", " + e);
+      }
+    }
+  }
+
+  /**
+   * ファイルが blocks.persistence.segment-bytes を超えていたら、セグメントとして閉じて新しいファイルにする
+   */
+  private void rotate() throws IOException {
+    // segment を変えるのは書き込み用のスレッドだけなので、ここでは同期せずに読める
+    long closing = segment;
+    synchronized (fileLock) {
+      if (channel.size() < segmentBytes) {
+        return;
+      }
+      channel.close();
+      Files.move(path, segmentPath(closing), StandardCopyOption.ATOMIC_MOVE);
+      channel = open();
+    }
+    synchronized (this) {
+      segment = closing + 1;
+      // 閉じる前に全てDBに書けていたら、すぐに消す
+      if (!pending.containsKey(closing)) {
+        deleteSegment(closing);
+      }
+    }
+  }
+
+  private void flushLoop() {
+    List<Entry> batch = new ArrayList<Entry>();
+    while (!closed) {
+      try {
+        batch.add(flushing.take());
+        // flush-interval-ms の間に来た分をまとめて書く
+        if (flushing.size() < batchSize - 1) {
+          Thread.sleep(flushIntervalMs);
+        }
+        flushing.drainTo(batch, batchSize - 1);
+        write(batch);
+      } catch (InterruptedException e) {
+        return;
+      }
+
+      for (Entry entry : batch) {
+        if (entry.flushed != null) {
+          entry.flushed.run();
+        }
+      }
+      synchronized (this) {
+        flushed += batch.size();
+        notifyAll();
+        // 閉じたセグメントは、中の分が全てDBに書けたら消す
+        for (Entry entry : batch) {
+          if (pending.merge(entry.segment, -1, Integer::sum) == 0) {
+            pending.remove(entry.segment);
+            if (entry.segment != segment) {
+              deleteSegment(entry.segment);
+            }
+          }
+        }
+        // 全てDBに書けたらファイルを空にする(追記の途中ではない)
+        if (flushed == appended) {
+          truncate();
+        }
+      }
+      batch.clear();
+    }
+  }
+
+  /**
+   * 1つのトランザクションで書く。書けるまで flush-interval-ms ごとに書き直す
+   *
+   * 書けなかったときは途中でIDが振られているかもしれないので、書き直すときはファイルに書いた行から作り直す。
+   */
+  private void write(List<Entry> batch) throws InterruptedException {
+    for (int attempt = 0;; attempt++) {
+      List<Object> inserts = new ArrayList<Object>();
+      Map<String, Object> updates = new LinkedHashMap<String, Object>();
+      try {
+        for (Entry entry : batch) {
+          Entry source = attempt == 0 || entry.line == null ? entry : decode(entry.line);
+          inserts.addAll(source.inserts);
+          merge(updates, source.updates);
+        }
+        writer.accept(inserts, new ArrayList<Object>(updates.values()));
+        return;
+      } catch (IOException | RuntimeException e) {
+        System.out.println("ERROR! journal flush failed, retrying! entries=" + batch.size() + ", " + e);
+        Thread.sleep(Math.max(flushIntervalMs, 100));
+      }
+    }
+  }
+
+  private void truncate() {
+    synchronized (fileLock) {
+      try {
+        channel.truncate(0);
+        channel.force(false);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  private FileChannel open() throws IOException {
+    return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  private Path segmentPath(long number) {
+    return path.resolveSibling(path.getFileName() + "." + number);
+  }
+
+  private void deleteSegment(long number) {
+    try {
+      Files.deleteIfExists(segmentPath(number));
+    } catch (IOException e) {
+      // 次の起動で書き直してから消す(すでにDBにあるものは飛ばす)
+      System.out.println("ERROR! journal segment delete failed! " + segmentPath(number) + ", " + e);
+    }
+  }
+
+  /**
+   * 残っているセグメント(番号順)
+   */
+  Map<Long, Path> segments() throws IOException {
+    Map<Long, Path> segments = new TreeMap<Long, Path>();
+    Path dir = path.toAbsolutePath().getParent();
+    if (!Files.isDirectory(dir)) {
+      return segments;
+    }
+    String prefix = path.getFileName() + ".";
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "*")) {
+      for (Path file : stream) {
+        String suffix = file.getFileName().toString().substring(prefix.length());
+        if (suffix.matches("[0-9]+")) {
+          segments.put(Long.parseLong(suffix), file);
+        }
+      }
+    }
+    return segments;
+  }
+
+  /**
+   * 同じ行(ゲーム、プレイヤー)の更新は最後のものだけにする(1つのトランザクションで同じ行を2回更新しない)
+   */
+  private static void merge(Map<String, Object> updates, List<Object> list) {
+    for (Object entity : list) {
+      Integer id = entity instanceof Game ? ((Game) entity).getId() : ((Player) entity).getId();
+      String key = entity.getClass().getSimpleName() + ":" + id;
+      updates.remove(key);
+      updates.put(key, entity);
+    }
+  }
+
+  String encode(Entry entry) throws IOException {
+    ObjectNode node = mapper.createObjectNode();
+    node.set("inserts", encode(entry.inserts));
+    node.set("updates", encode(entry.updates));
+    return mapper.writeValueAsString(node);
+  }
+
+  private ArrayNode encode(List<Object> entities) {
+    ArrayNode array = mapper.createArrayNode();
+    for (Object entity : entities) {
+      ObjectNode item = array.addObject();
+      item.put("type", entity.getClass().getSimpleName());
+      item.set("entity", mapper.valueToTree(entity));
+    }
+    return array;
+  }
+
+  Entry decode(String line) throws IOException {
+    JsonNode node = mapper.readTree(line);
+    return new Entry(decode(node.get("inserts")), decode(node.get("updates")), null);
+  }
+
+  private List<Object> decode(JsonNode array) throws IOException {
+    List<Object> entities = new ArrayList<Object>();
+    for (JsonNode item : array) {
+      Class<?> type = TYPES.get(item.get("type").asText());
+      if (type == null) {
+        throw new IOException("unknown type: " + item.get("type"));
+      }
+      entities.add(mapper.treeToValue(item.get("entity"), type));
+    }
+    return entities;
+  }
+
+}
@@ -0,0 +1,58 @@
+package com.example.blocks.service;
+
+import java.security.Principal;
+
+import com.example.blocks.engine.Board;
+import com.example.blocks.engine.Orientation;
+import com.example.blocks.engine.Pieces;
+import com.example.blocks.entity.Message;
+import com.example.blocks.entity.MoveError;
+import com.example.blocks.entity.Player;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * 送られてきた手を保存する前に確かめる
+ *
+ * 置けるかどうかはブロックのセルの数だけの確認で済み(Board#canPlace)、パスは置ける手のキャッシュで確かめる。
+ */
+@Component
+public class MoveValidator {
+
+  @Autowired
+  private LegalMoveCache legalMoveCache;
+
+  /**
+   * state の手番の人の手として確かめる。問題がなければ null
+   */
+  public MoveError.Reason validate(GameState state, Message message, Principal principal) {
+    Player player = state.getPlayer(state.getNowPlayer());
+
+    // 手番の人(CPUでない)から送られてきたか
+    if (principal == null || player.getAccountName() == null || !player.getAccountName().equals(principal.getName())
+        || player.isPass()) {
+      return MoveError.Reason.NOT_YOUR_TURN;
+    }
+
+    if (message.isPass()) {
+      // 置ける手があるのにパスはできない
+      if (!legalMoveCache.isPass(state, player.getNumber())) {
+        return MoveError.Reason.ILLEGAL_PASS;
+      }
+      return null;
+    }
+
+    int blockType = message.getSelectBlock();
+    Board board = state.getBoard();
+    if (blockType < 0 || blockType >= Pieces.COUNT || (board.getRemaining(player.getNumber()) & (1 << blockType)) == 0) {
+      return MoveError.Reason.BLOCK_NOT_FOUND;
+    }
+    Orientation orientation = Pieces.get(blockType, message.getAngle(), message.isFlip());
+    if (!board.canPlace(player.getNumber(), orientation, message.getX(), message.getY())) {
+      return MoveError.Reason.ILLEGAL_PLACEMENT;
+    }
+    return null;
+  }
+
+}
@@ -0,0 +1,64 @@
+package com.example.blocks.sim;
+
+import com.example.blocks.cpu.CpuStrategy;
+import com.example.blocks.cpu.GreedyCpuStrategy;
+import com.example.blocks.cpu.HeuristicCpuStrategy;
+import com.example.blocks.cpu.LookaheadCpuStrategy;
+import com.example.blocks.cpu.MctsCpuStrategy;
+import com.example.blocks.cpu.ParanoidCpuStrategy;
+import com.example.blocks.engine.TranspositionTable;
+
+/**
+ * 名前から思考ルーチンを作る(Spring を使わないとき用)
+ *
+ * 思考時間は --mcts-budget-ms, --mcts-playouts, --paranoid-budget-ms で変えられる。
+ * 置換表は全スレッドで1つを共有する。
+ */
+public class Engines {
+
+  private final Options options;
+  private final TranspositionTable transpositionTable;
+
+  public Engines(Options options) {
+    this.options = options;
+    this.transpositionTable = new TranspositionTable(options.getInt("transposition-table-entries", 1 << 20));
+  }
+
+  /**
+   * 思考ルーチンを作る。MCTS はスレッドを1つだけ使うので、対局を並列に動かしても取り合わない
+   */
+  public CpuStrategy create(String name) {
+    switch (name) {
+    case GreedyCpuStrategy.NAME:
+      return new GreedyCpuStrategy();
+    case HeuristicCpuStrategy.NAME:
+      return new HeuristicCpuStrategy();
+    case LookaheadCpuStrategy.NAME:
+      return new LookaheadCpuStrategy();
+    case ParanoidCpuStrategy.NAME:
+      ParanoidCpuStrategy paranoid = new ParanoidCpuStrategy(transpositionTable);
+      paranoid.setBudgetMs(options.getLong("paranoid-budget-ms", 50));
+      paranoid.setLogging(false);
+      return paranoid;
+    case MctsCpuStrategy.NAME:
+      MctsCpuStrategy mcts = new MctsCpuStrategy();
+      mcts.setThreads(1);
+      mcts.setBudgetMs(options.getLong("mcts-budget-ms", 50));
+      mcts.setMaxPlayouts(options.getInt("mcts-playouts", 0));
+      mcts.setLogging(false);
+      return mcts;
+    default:
+      throw new IllegalArgumentException("unknown engine: " + name);
+    }
+  }
+
+  /**
+   * 作った思考ルーチンの後片付け
+   */
+  public static void close(CpuStrategy strategy) {
+    if (strategy instanceof MctsCpuStrategy) {
+      ((MctsCpuStrategy) strategy).shutdown();
+    }
+  }
+
+}
@@ -0,0 +1,59 @@
+package com.example.blocks.sim;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import lombok.Data;
+
+/**
+ * 1局の結果(配列は席の順)
+ */
+@Data
+public class GameResult {
+
+  // 対局の番号と乱数の種
+  private int index;
+  private long seed;
+
+  private String[] engines;
+
+  // ポイント(置いたセル数)
+  private int[] scores;
+
+  // 打った手の数(パスを除く)
+  private int[] moves;
+
+  // 考えた時間の合計と1手の最大(ナノ秒)
+  private long[] thinkNanos;
+  private long[] maxThinkNanos;
+
+  // 1手ごとの考えた時間(マイクロ秒)。結果ファイルには書かない
+  @JsonIgnore
+  private int[][] thinkMicros;
+
+  private int turns;
+
+  // 置けない手を返したなどの異常(なければ null)
+  private String error;
+
+  /**
+   * 勝った席には 1 を同点の人数で割ったもの、負けた席には 0 を入れる
+   */
+  public double[] wins() {
+    int best = Integer.MIN_VALUE;
+    int winners = 0;
+    for (int score : scores) {
+      if (score > best) {
+        best = score;
+        winners = 1;
+      } else if (score == best) {
+        winners++;
+      }
+    }
+    double[] wins = new double[scores.length];
+    for (int i = 0; i < scores.length; i++) {
+      wins[i] = scores[i] == best ? 1.0 / winners : 0;
+    }
+    return wins;
+  }
+
+}
@@ -0,0 +1,127 @@
+package com.example.blocks.sim;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.example.blocks.cpu.CpuStrategy;
+import com.example.blocks.cpu.EndgameSolver;
+import com.example.blocks.engine.Board;
+import com.example.blocks.engine.Move;
+import com.example.blocks.engine.Pieces;
+import com.example.blocks.engine.Variant;
+
+/**
+ * CPU同士の1局を最後まで打つ
+ *
+ * ルールは画面の対局と同じで、一度パスした(置けなくなった)プレイヤーは以後打たず、全員がパスしたら終わる。
+ * 乱数は対局ごとの種から作るので、同じ種と同じ思考ルーチン(時間ではなく回数で打ち切るもの)なら同じ対局になる。
+ */
+public class GameRunner {
+
+  private final Variant variant;
+  private final EndgameSolver endgameSolver;
+  private final PrintStream trace;
+
+  public GameRunner(EndgameSolver endgameSolver, PrintStream trace) {
+    this(Variant.CLASSIC, endgameSolver, trace);
+  }
+
+  /**
+   * @param variant 盤の種類
+   * @param endgameSolver 終盤の読み切り(使わなければ null)
+   * @param trace 1手ごとの出力先(出さなければ null)
+   */
+  public GameRunner(Variant variant, EndgameSolver endgameSolver, PrintStream trace) {
+    this.variant = variant;
+    this.endgameSolver = endgameSolver;
+    this.trace = trace;
+  }
+
+  /**
+   * 対局ごとの乱数の種
+   */
+  public static long seed(long baseSeed, int index) {
+    return baseSeed ^ (index + 1) * 0x9e3779b97f4a7c15L;
+  }
+
+  public GameResult play(int index, long seed, CpuStrategy[] seats) {
+    Board board = new Board(variant);
+    int playerNum = board.getPlayerNum();
+    if (seats.length != playerNum) {
+      throw new IllegalArgumentException(variant + " needs " + playerNum + " engines: " + seats.length);
+    }
+    Random random = new Random(seed);
+
+    GameResult result = new GameResult();
+    result.setIndex(index);
+    result.setSeed(seed);
+    String[] engines = new String[playerNum];
+    for (int i = 0; i < playerNum; i++) {
+      engines[i] = seats[i].getName();
+    }
+    result.setEngines(engines);
+    int[] moves = new int[playerNum];
+    long[] thinkNanos = new long[playerNum];
+    long[] maxThinkNanos = new long[playerNum];
+    int[][] thinkMicros = new int[playerNum][Pieces.COUNT + 1];
+    int[] thinks = new int[playerNum];
+
+    int out = 0;
+    int all = (1 << playerNum) - 1;
+    int turn = 0;
+    for (int player = 1; out != all; player = player % playerNum + 1) {
+      int bit = 1 << (player - 1);
+      if ((out & bit) != 0) {
+        continue;
+      }
+
+      long start = System.nanoTime();
+      int move = endgameSolver == null ? EndgameSolver.UNSOLVED
+          : endgameSolver.solve(board, player, seats[player - 1].getCost());
+      if (move == EndgameSolver.UNSOLVED) {
+        move = seats[player - 1].think(board, player, random);
+      }
+      long nanos = System.nanoTime() - start;
+      thinkNanos[player - 1] += nanos;
+      maxThinkNanos[player - 1] = Math.max(maxThinkNanos[player - 1], nanos);
+      if (thinks[player - 1] < thinkMicros[player - 1].length) {
+        thinkMicros[player - 1][thinks[player - 1]++] = (int) Math.min(nanos / 1000, Integer.MAX_VALUE);
+      }
+      turn++;
+
+      if (move == Move.PASS) {
+        out |= bit;
+      } else if ((board.getRemaining(player) & (1 << Move.blockType(move))) == 0
+          || !board.canPlace(player, Move.orientation(move), Move.x(move), Move.y(move))) {
+        result.setError(String.format("turn %d: %s (player %d) returned an illegal move %s", turn, engines[player - 1],
+            player, Move.toHand(move)));
+        break;
+      } else {
+        board.place(player, Move.orientation(move), Move.x(move), Move.y(move));
+        moves[player - 1]++;
+      }
+
+      if (trace != null) {
+        trace.println(String.format("turn %d: player %d (%s) %s in %.1f ms", turn, player, engines[player - 1],
+            move == Move.PASS ? "pass" : Move.toHand(move), nanos / 1e6));
+      }
+    }
+
+    int[] scores = new int[playerNum];
+    for (int i = 0; i < playerNum; i++) {
+      scores[i] = board.countCells(i + 1);
+    }
+    result.setScores(scores);
+    result.setMoves(moves);
+    result.setThinkNanos(thinkNanos);
+    result.setMaxThinkNanos(maxThinkNanos);
+    for (int i = 0; i < playerNum; i++) {
+      thinkMicros[i] = Arrays.copyOf(thinkMicros[i], thinks[i]);
+    }
+    result.setThinkMicros(thinkMicros);
+    result.setTurns(turn);
+    return result;
+  }
+
+}
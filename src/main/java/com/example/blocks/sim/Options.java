@@ -0,0 +1,60 @@
+package com.example.blocks.sim;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * コマンドラインの --名前=値 形式の引数
+ */
+public class Options {
+
+  private final Map<String, String> values = new HashMap<String, String>();
+
+  public Options(String[] args) {
+    for (String arg : args) {
+      if (!arg.startsWith("--")) {
+        throw new IllegalArgumentException("unknown argument: " + arg);
+      }
+      int eq = arg.indexOf('=');
+      if (eq < 0) {
+        values.put(arg.substring(2), "true");
+      } else {
+        values.put(arg.substring(2, eq), arg.substring(eq + 1));
+      }
+    }
+  }
+
+  public boolean has(String name) {
+    return values.containsKey(name);
+  }
+
+  public String get(String name, String defaultValue) {
+    return values.getOrDefault(name, defaultValue);
+  }
+
+  public int getInt(String name, int defaultValue) {
+    return values.containsKey(name) ? Integer.parseInt(values.get(name)) : defaultValue;
+  }
+
+  public long getLong(String name, long defaultValue) {
+    return values.containsKey(name) ? Long.parseLong(values.get(name)) : defaultValue;
+  }
+
+  public double getDouble(String name, double defaultValue) {
+    return values.containsKey(name) ? Double.parseDouble(values.get(name)) : defaultValue;
+  }
+
+  public boolean getBoolean(String name, boolean defaultValue) {
+    return values.containsKey(name) ? Boolean.parseBoolean(values.get(name)) : defaultValue;
+  }
+
+  /**
+   * カンマ区切りの値
+   */
+  public List<String> getList(String name, String defaultValue) {
+    return Arrays.asList(get(name, defaultValue).split(","));
+  }
+
+}
@@ -0,0 +1,162 @@
+package com.example.blocks.sim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 対局結果からイロレーティングを計算する
+ *
+ * 1局を、同じ対局にいた2人ずつの勝ち負け(ポイントが多い方の勝ち、同じなら引き分け)に分けて数え、
+ * Bradley-Terry モデルの最尤推定でレーティングを求める。0番目の思考ルーチンを 0 とする。
+ * 信頼区間は、対局を復元抽出するブートストラップで求める(同じ対局の中の勝ち負けは一緒に抽出する)。
+ */
+public class Ratings {
+
+  // 全ての組に足しておく仮想の引き分けの数(全勝・全敗でも発散しないように)
+  private static final double PRIOR_DRAWS = 1;
+
+  private static final int ITERATIONS = 200;
+
+  private final int size;
+
+  // [対局][i][j] -> i が j から取った勝ち点(勝ち1、引き分け0.5)、i と j の対戦数
+  private final List<double[][]> scores = new ArrayList<double[][]>();
+  private final List<int[][]> counts = new ArrayList<int[][]>();
+
+  public Ratings(int size) {
+    this.size = size;
+  }
+
+  public int getGames() {
+    return scores.size();
+  }
+
+  /**
+   * 1局の結果を足す
+   *
+   * @param engines 席ごとの思考ルーチンの番号
+   * @param points 席ごとのポイント
+   */
+  public void add(int[] engines, int[] points) {
+    double[][] score = new double[size][size];
+    int[][] count = new int[size][size];
+    for (int a = 0; a < engines.length; a++) {
+      for (int b = 0; b < engines.length; b++) {
+        int i = engines[a];
+        int j = engines[b];
+        if (a == b || i == j) {
+          continue;
+        }
+        score[i][j] += points[a] > points[b] ? 1 : points[a] == points[b] ? 0.5 : 0;
+        count[i][j]++;
+      }
+    }
+    scores.add(score);
+    counts.add(count);
+  }
+
+  /**
+   * i が j から取った勝ち点の割合(全対局)
+   */
+  public double scoreRate(int i, int j) {
+    double score = 0;
+    int count = 0;
+    for (int g = 0; g < scores.size(); g++) {
+      score += scores.get(g)[i][j];
+      count += counts.get(g)[i][j];
+    }
+    return count == 0 ? 0.5 : score / count;
+  }
+
+  /**
+   * 全対局でのレーティング
+   */
+  public double[] elo() {
+    int[] games = new int[scores.size()];
+    for (int g = 0; g < games.length; g++) {
+      games[g] = g;
+    }
+    return fit(games);
+  }
+
+  /**
+   * ブートストラップでの信頼区間
+   *
+   * @return [思考ルーチン][0: 下限, 1: 上限]
+   */
+  public double[][] confidenceIntervals(double confidence, int samples, Random random) {
+    double[][] elos = new double[size][samples];
+    int[] games = new int[scores.size()];
+    for (int s = 0; s < samples; s++) {
+      for (int g = 0; g < games.length; g++) {
+        games[g] = random.nextInt(games.length);
+      }
+      double[] elo = fit(games);
+      for (int i = 0; i < size; i++) {
+        elos[i][s] = elo[i];
+      }
+    }
+
+    double[][] intervals = new double[size][2];
+    for (int i = 0; i < size; i++) {
+      Arrays.sort(elos[i]);
+      intervals[i][0] = elos[i][(int) Math.floor((1 - confidence) / 2 * (samples - 1))];
+      intervals[i][1] = elos[i][(int) Math.ceil((1 + confidence) / 2 * (samples - 1))];
+    }
+    return intervals;
+  }
+
+  /**
+   * 指定した対局の結果から Bradley-Terry の強さを MM 法で求め、イロに直す
+   */
+  private double[] fit(int[] games) {
+    double[][] w = new double[size][size];
+    double[][] n = new double[size][size];
+    for (int g : games) {
+      for (int i = 0; i < size; i++) {
+        for (int j = 0; j < size; j++) {
+          w[i][j] += scores.get(g)[i][j];
+          n[i][j] += counts.get(g)[i][j];
+        }
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        if (i != j) {
+          w[i][j] += PRIOR_DRAWS * 0.5;
+          n[i][j] += PRIOR_DRAWS;
+        }
+      }
+    }
+
+    double[] gamma = new double[size];
+    Arrays.fill(gamma, 1);
+    for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+      double[] next = new double[size];
+      for (int i = 0; i < size; i++) {
+        double wins = 0;
+        double denominator = 0;
+        for (int j = 0; j < size; j++) {
+          if (i != j) {
+            wins += w[i][j];
+            denominator += n[i][j] / (gamma[i] + gamma[j]);
+          }
+        }
+        next[i] = wins / denominator;
+      }
+      // 0番目を1にそろえる
+      for (int i = 0; i < size; i++) {
+        gamma[i] = next[i] / next[0];
+      }
+    }
+
+    double[] elo = new double[size];
+    for (int i = 0; i < size; i++) {
+      elo[i] = 400 * Math.log10(gamma[i]);
+    }
+    return elo;
+  }
+
+}
@@ -0,0 +1,203 @@
+package com.example.blocks.sim;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.blocks.cpu.CpuStrategy;
+import com.example.blocks.cpu.EndgameSolver;
+import com.example.blocks.engine.Variant;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Spring、DB、STOMP なしでCPU同士を大量に対局させる
+ *
+ * 対局は全コアに分けて並列に打ち、思考ルーチンごとのポイントの分布、勝率、1秒あたりの対局数を
+ * 結果ファイル(JSON)に書く。席の思考ルーチンは対局ごとにずらして、席の有利不利を打ち消す。
+ *
+ * <pre>
+ * mvn -q compile exec:java -Dexec.mainClass=com.example.blocks.sim.SelfPlay -Dexec.args="--games=1000 --engines=greedy,heuristic,lookahead,heuristic"
+ * </pre>
+ *
+ * 主なオプション:
+ * --games 対局数, --threads スレッド数(既定は全コア), --seed 乱数の種, --engines 席ごとの思考ルーチン,
+ * --rotate 席をずらすか(既定 true), --endgame 終盤の読み切りを使うか(既定 false), --out 結果ファイル,
+ * --variant 盤の種類(classic, duo, large。既定 classic。--engines は人数分並べる),
+ * --game=N N番目の対局だけを1手ずつ表示しながら打ち直す(不具合の再現用)
+ */
+public class SelfPlay {
+
+  public static void main(String[] args) throws Exception {
+    Options options = new Options(args);
+    int games = options.getInt("games", 1000);
+    int threads = options.getInt("threads", Runtime.getRuntime().availableProcessors());
+    long seed = options.getLong("seed", 1);
+    List<String> engineNames = options.getList("engines", "greedy,heuristic,lookahead,heuristic");
+    boolean rotate = options.getBoolean("rotate", true);
+    boolean endgame = options.getBoolean("endgame", false);
+    Variant variant = Variant.of(options.get("variant", "classic"));
+    File out = new File(options.get("out", "selfplay-results.json"));
+    if (engineNames.size() != variant.getPlayerNum()) {
+      throw new IllegalArgumentException(variant + " needs " + variant.getPlayerNum() + " engines: " + engineNames);
+    }
+
+    Engines engines = new Engines(options);
+
+    if (options.has("game")) {
+      int index = options.getInt("game", 0);
+      GameResult result = play(engines, engineNames, index, seed, rotate, new GameRunner(variant, solver(endgame), System.out));
+      System.out.println(summary(result));
+      return;
+    }
+
+    // 対局の番号を取り合いながら、スレッドごとに思考ルーチンを作って打つ
+    AtomicInteger next = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<List<GameResult>>> futures = new ArrayList<Future<List<GameResult>>>();
+    long start = System.nanoTime();
+    for (int t = 0; t < threads; t++) {
+      futures.add(executor.submit(() -> {
+        GameRunner runner = new GameRunner(variant, solver(endgame), null);
+        List<GameResult> results = new ArrayList<GameResult>();
+        for (int index = next.getAndIncrement(); index < games; index = next.getAndIncrement()) {
+          results.add(play(engines, engineNames, index, seed, rotate, runner));
+        }
+        return results;
+      }));
+    }
+    List<GameResult> results = new ArrayList<GameResult>();
+    for (Future<List<GameResult>> future : futures) {
+      results.addAll(future.get());
+    }
+    executor.shutdown();
+    double seconds = (System.nanoTime() - start) / 1e9;
+    results.sort((a, b) -> Integer.compare(a.getIndex(), b.getIndex()));
+
+    Map<String, Object> report = report(results, options, seconds, threads);
+    new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(out, report);
+
+    System.out.println(String.format("%d games in %.1f s (%.1f games/s, %d threads)", games, seconds,
+        games / seconds, threads));
+    @SuppressWarnings("unchecked")
+    Map<String, Map<String, Object>> byEngine = (Map<String, Map<String, Object>>) report.get("engines");
+    for (Map.Entry<String, Map<String, Object>> entry : byEngine.entrySet()) {
+      Map<String, Object> stats = entry.getValue();
+      System.out.println(String.format("%-10s mean=%.1f sd=%.1f min=%s max=%s winRate=%.3f think=%.2f ms/move",
+          entry.getKey(), stats.get("mean"), stats.get("stdev"), stats.get("min"), stats.get("max"),
+          stats.get("winRate"), stats.get("thinkMsPerMove")));
+    }
+    for (GameResult result : results) {
+      if (result.getError() != null) {
+        System.out.println("game " + result.getIndex() + " (seed " + result.getSeed() + "): " + result.getError());
+      }
+    }
+    System.out.println("wrote " + out);
+  }
+
+  /**
+   * index 番目の対局を打つ。席をずらすときは index 個ずらす
+   */
+  static GameResult play(Engines engines, List<String> engineNames, int index, long seed, boolean rotate,
+      GameRunner runner) {
+    CpuStrategy[] seats = new CpuStrategy[engineNames.size()];
+    for (int i = 0; i < seats.length; i++) {
+      seats[i] = engines.create(engineNames.get(rotate ? (i + index) % seats.length : i));
+    }
+    try {
+      return runner.play(index, GameRunner.seed(seed, index), seats);
+    } finally {
+      for (CpuStrategy seat : seats) {
+        Engines.close(seat);
+      }
+    }
+  }
+
+  static EndgameSolver solver(boolean endgame) {
+    if (!endgame) {
+      return null;
+    }
+    EndgameSolver solver = new EndgameSolver();
+    solver.setLogging(false);
+    return solver;
+  }
+
+  private static Map<String, Object> report(List<GameResult> results, Options options, double seconds,
+      int threads) {
+    // 思考ルーチンごとに集計する
+    Map<String, List<Integer>> scores = new TreeMap<String, List<Integer>>();
+    Map<String, Double> wins = new TreeMap<String, Double>();
+    Map<String, long[]> think = new TreeMap<String, long[]>();
+    int errors = 0;
+    for (GameResult result : results) {
+      if (result.getError() != null) {
+        errors++;
+        continue;
+      }
+      double[] w = result.wins();
+      for (int i = 0; i < result.getEngines().length; i++) {
+        String name = result.getEngines()[i];
+        scores.computeIfAbsent(name, k -> new ArrayList<Integer>()).add(result.getScores()[i]);
+        wins.merge(name, w[i], Double::sum);
+        long[] t = think.computeIfAbsent(name, k -> new long[3]);
+        t[0] += result.getThinkNanos()[i];
+        t[1] += result.getMoves()[i] + 1;
+        t[2] = Math.max(t[2], result.getMaxThinkNanos()[i]);
+      }
+    }
+
+    Map<String, Object> byEngine = new LinkedHashMap<String, Object>();
+    for (Map.Entry<String, List<Integer>> entry : scores.entrySet()) {
+      List<Integer> list = entry.getValue();
+      double mean = list.stream().mapToInt(Integer::intValue).average().orElse(0);
+      double variance = list.stream().mapToDouble(s -> (s - mean) * (s - mean)).sum() / Math.max(list.size() - 1, 1);
+      Map<Integer, Integer> histogram = new TreeMap<Integer, Integer>();
+      for (int score : list) {
+        histogram.merge(score, 1, Integer::sum);
+      }
+      long[] t = think.get(entry.getKey());
+
+      Map<String, Object> stats = new LinkedHashMap<String, Object>();
+      stats.put("seats", list.size());
+      stats.put("mean", mean);
+      stats.put("stdev", Math.sqrt(variance));
+      stats.put("min", list.stream().mapToInt(Integer::intValue).min().orElse(0));
+      stats.put("max", list.stream().mapToInt(Integer::intValue).max().orElse(0));
+      stats.put("winRate", wins.get(entry.getKey()) / list.size());
+      stats.put("thinkMsPerMove", t[1] == 0 ? 0.0 : t[0] / 1e6 / t[1]);
+      stats.put("maxThinkMs", t[2] / 1e6);
+      stats.put("histogram", histogram);
+      byEngine.put(entry.getKey(), stats);
+    }
+
+    Map<String, Object> report = new LinkedHashMap<String, Object>();
+    report.put("games", results.size());
+    report.put("errors", errors);
+    report.put("seed", options.getLong("seed", 1));
+    report.put("variant", options.get("variant", "classic"));
+    report.put("threads", threads);
+    report.put("seconds", seconds);
+    report.put("gamesPerSecond", results.size() / seconds);
+    report.put("engines", byEngine);
+    report.put("results", results);
+    return report;
+  }
+
+  private static String summary(GameResult result) {
+    StringBuilder sb = new StringBuilder("game " + result.getIndex() + " (seed " + result.getSeed() + "):");
+    for (int i = 0; i < result.getScores().length; i++) {
+      sb.append(' ').append(result.getEngines()[i]).append('=').append(result.getScores()[i]);
+    }
+    if (result.getError() != null) {
+      sb.append(" error: ").append(result.getError());
+    }
+    return sb.toString();
+  }
+
+}
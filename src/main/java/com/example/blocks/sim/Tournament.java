@@ -0,0 +1,246 @@
+package com.example.blocks.sim;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.example.blocks.cpu.CpuStrategy;
+import com.example.blocks.engine.Variant;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * 思考ルーチン同士の総当たり戦
+ *
+ * 思考ルーチンが席の数(4人用なら4)以上なら異なる思考ルーチンの全ての並べ方、少なければ全員が1回以上入る全ての並べ方を1ラウンドとし、
+ * ラウンドごとにレーティング(Ratings)と信頼区間を出す。最初の思考ルーチンを基準(0)として、
+ * 他の全ての思考ルーチンとの差の信頼区間が 0 を含まなくなったら(有意になったら)早めに打ち切る。
+ * 1手ごとの思考時間も集計するので、強さとコストを1つの結果ファイルで比べられる。
+ *
+ * <pre>
+ * mvn -q compile exec:java -Dexec.mainClass=com.example.blocks.sim.Tournament -Dexec.args="--engines=heuristic,lookahead,paranoid"
+ * </pre>
+ *
+ * 主なオプション:
+ * --engines 思考ルーチン(最初が基準), --threads スレッド数(既定は全コア), --seed 乱数の種,
+ * --min-rounds 打ち切りを判定し始めるラウンド数(既定 3), --max-rounds ラウンド数の上限(既定 50),
+ * --confidence 信頼水準(既定 0.95), --out 結果ファイル(既定 tournament-results.json),
+ * --variant 盤の種類(既定 classic), 思考時間は SelfPlay と同じ --paranoid-budget-ms などで指定する
+ */
+public class Tournament {
+
+  private static final int BOOTSTRAP_SAMPLES = 200;
+
+  public static void main(String[] args) throws Exception {
+    Options options = new Options(args);
+    List<String> names = options.getList("engines", "greedy,heuristic,lookahead");
+    int threads = options.getInt("threads", Runtime.getRuntime().availableProcessors());
+    long seed = options.getLong("seed", 1);
+    int minRounds = options.getInt("min-rounds", 3);
+    int maxRounds = options.getInt("max-rounds", 50);
+    double confidence = options.getDouble("confidence", 0.95);
+    boolean endgame = options.getBoolean("endgame", false);
+    Variant variant = Variant.of(options.get("variant", "classic"));
+    File out = new File(options.get("out", "tournament-results.json"));
+    if (names.size() < 2) {
+      throw new IllegalArgumentException("need at least 2 engines: " + names);
+    }
+
+    Engines engines = new Engines(options);
+    List<int[]> seatings = seatings(names.size(), variant.getPlayerNum());
+    Ratings ratings = new Ratings(names.size());
+    int rounds = 0;
+    Random bootstrap = new Random(seed);
+    List<GameResult> results = new ArrayList<GameResult>();
+    double[][] intervals = new double[names.size()][2];
+    String stopped = "max-rounds";
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    long start = System.nanoTime();
+    try {
+      for (int round = 0; round < maxRounds; round++) {
+        // 1ラウンド分の席順を並列に打つ
+        List<Future<GameResult>> futures = new ArrayList<Future<GameResult>>();
+        for (int k = 0; k < seatings.size(); k++) {
+          int index = round * seatings.size() + k;
+          int[] seating = seatings.get(k);
+          futures.add(executor.submit(() -> play(engines, names, seating, index, seed, variant, endgame)));
+        }
+        for (int k = 0; k < futures.size(); k++) {
+          GameResult result = futures.get(k).get();
+          results.add(result);
+          if (result.getError() != null) {
+            System.out.println("game " + result.getIndex() + " (seed " + result.getSeed() + "): " + result.getError());
+            continue;
+          }
+          ratings.add(seatings.get(k), result.getScores());
+        }
+        rounds++;
+
+        double[] elo = ratings.elo();
+        intervals = ratings.confidenceIntervals(confidence, BOOTSTRAP_SAMPLES, bootstrap);
+        System.out.println(String.format("round %d: %s", round + 1, format(names, elo, intervals)));
+        if (round + 1 >= minRounds && significant(intervals)) {
+          stopped = "significant";
+          break;
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    Map<String, Object> report = report(names, ratings, intervals, results, rounds, confidence, stopped, seconds,
+        threads);
+    new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(out, report);
+    System.out.println(String.format("%d games, %d rounds in %.1f s, stopped: %s", results.size(),
+        rounds, seconds, stopped));
+    @SuppressWarnings("unchecked")
+    List<Map<String, Object>> rows = (List<Map<String, Object>>) report.get("engines");
+    for (Map<String, Object> row : rows) {
+      System.out.println(String.format("%-10s elo=%+.0f [%+.0f, %+.0f] mean=%.1f think=%.2f ms/move p95=%.2f ms max=%.1f ms",
+          row.get("name"), row.get("elo"), row.get("eloLow"), row.get("eloHigh"), row.get("meanPoints"),
+          row.get("thinkMsMean"), row.get("thinkMsP95"), row.get("thinkMsMax")));
+    }
+    System.out.println("wrote " + out);
+  }
+
+  /**
+   * 席順の一覧(思考ルーチンの番号の並び)
+   */
+  static List<int[]> seatings(int engineNum, int seatNum) {
+    List<int[]> seatings = new ArrayList<int[]>();
+    collect(new int[seatNum], 0, engineNum, seatings);
+    return seatings;
+  }
+
+  private static void collect(int[] seating, int seat, int engineNum, List<int[]> seatings) {
+    if (seat == seating.length) {
+      boolean[] used = new boolean[engineNum];
+      int distinct = 0;
+      for (int engine : seating) {
+        if (!used[engine]) {
+          used[engine] = true;
+          distinct++;
+        }
+      }
+      // 席の数以上なら全員違う思考ルーチン、少なければ全員が入っているものだけ
+      if (distinct == Math.min(engineNum, seating.length)) {
+        seatings.add(seating.clone());
+      }
+      return;
+    }
+    for (int engine = 0; engine < engineNum; engine++) {
+      seating[seat] = engine;
+      collect(seating, seat + 1, engineNum, seatings);
+    }
+  }
+
+  private static GameResult play(Engines engines, List<String> names, int[] seating, int index, long seed,
+      Variant variant, boolean endgame) {
+    CpuStrategy[] seats = new CpuStrategy[seating.length];
+    for (int i = 0; i < seats.length; i++) {
+      seats[i] = engines.create(names.get(seating[i]));
+    }
+    try {
+      return new GameRunner(variant, SelfPlay.solver(endgame), null).play(index, GameRunner.seed(seed, index), seats);
+    } finally {
+      for (CpuStrategy seat : seats) {
+        Engines.close(seat);
+      }
+    }
+  }
+
+  /**
+   * 基準以外の全ての思考ルーチンで、基準との差の信頼区間が 0 を含まない
+   */
+  private static boolean significant(double[][] intervals) {
+    for (int i = 1; i < intervals.length; i++) {
+      if (intervals[i][0] <= 0 && intervals[i][1] >= 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String format(List<String> names, double[] elo, double[][] intervals) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < names.size(); i++) {
+      sb.append(String.format("%s%s=%+.0f [%+.0f, %+.0f]", i == 0 ? "" : ", ", names.get(i), elo[i], intervals[i][0],
+          intervals[i][1]));
+    }
+    return sb.toString();
+  }
+
+  private static Map<String, Object> report(List<String> names, Ratings ratings, double[][] intervals,
+      List<GameResult> results, int rounds, double confidence, String stopped, double seconds, int threads) {
+    double[] elo = ratings.elo();
+    List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+    for (int i = 0; i < names.size(); i++) {
+      String name = names.get(i);
+      List<Integer> micros = new ArrayList<Integer>();
+      long points = 0;
+      int seats = 0;
+      for (GameResult result : results) {
+        if (result.getError() != null) {
+          continue;
+        }
+        for (int s = 0; s < result.getEngines().length; s++) {
+          if (result.getEngines()[s].equals(name)) {
+            points += result.getScores()[s];
+            seats++;
+            for (int t : result.getThinkMicros()[s]) {
+              micros.add(t);
+            }
+          }
+        }
+      }
+      int[] sorted = micros.stream().mapToInt(Integer::intValue).sorted().toArray();
+
+      Map<String, Object> row = new LinkedHashMap<String, Object>();
+      row.put("name", name);
+      row.put("elo", elo[i]);
+      row.put("eloLow", intervals[i][0]);
+      row.put("eloHigh", intervals[i][1]);
+      row.put("meanPoints", seats == 0 ? 0.0 : (double) points / seats);
+      row.put("moves", sorted.length);
+      row.put("thinkMsMean", Arrays.stream(sorted).average().orElse(0) / 1000);
+      row.put("thinkMsP50", percentile(sorted, 0.5) / 1000.0);
+      row.put("thinkMsP95", percentile(sorted, 0.95) / 1000.0);
+      row.put("thinkMsMax", sorted.length == 0 ? 0.0 : sorted[sorted.length - 1] / 1000.0);
+      Map<String, Double> versus = new LinkedHashMap<String, Double>();
+      for (int j = 0; j < names.size(); j++) {
+        if (j != i) {
+          versus.put(names.get(j), ratings.scoreRate(i, j));
+        }
+      }
+      row.put("scoreRate", versus);
+      rows.add(row);
+    }
+
+    Map<String, Object> report = new LinkedHashMap<String, Object>();
+    report.put("games", results.size());
+    report.put("rounds", rounds);
+    report.put("confidence", confidence);
+    report.put("stopped", stopped);
+    report.put("threads", threads);
+    report.put("seconds", seconds);
+    report.put("engines", rows);
+    report.put("results", results);
+    return report;
+  }
+
+  private static int percentile(int[] sorted, double p) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+  }
+
+}
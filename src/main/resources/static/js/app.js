@@ -29,6 +29,19 @@ function connect(id) {
             // abort("受信");
             window.location.href = "/game/show?id=" + id;
         });
+        stompClient.subscribe('/user/queue/errors', function (message) {
+            var error = JSON.parse(message.body);
+            console.log('error!', error);
+            alert(error.message);
+            window.location.href = "/game/show?id=" + id;
+        });
+        stompClient.subscribe('/user/queue/hint', function (message) {
+            var hintInfo = JSON.parse(message.body);
+            console.log('hint!', hintInfo);
+            if (typeof showHint === 'function') {
+                showHint(hintInfo);
+            }
+        });
     });
 }
 
@@ -52,6 +65,15 @@ function sendName(selectBlock, x, y, angle, id, pass, flip) {
                                     ));
 }
 
+// ヒントを要求する(結果は /user/queue/hint に届く)
+function requestHint(id, count, budgetMs) {
+    stompClient.send("/spring-security-mvc-socket/hint", {},
+                     JSON.stringify({'id': id,
+                                    'count': count,
+                                    'budgetMs': budgetMs}
+                                    ));
+}
+
 function showGreeting(message) {
     $("#greetings").append("<tr><td>" + message + "</td></tr>");
 }
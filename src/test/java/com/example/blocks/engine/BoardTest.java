@@ -0,0 +1,138 @@
+package com.example.blocks.engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class BoardTest {
+
+  private static final Orientation SQUARE = Pieces.get(0, 0, false);
+  private static final Orientation MONO = Pieces.get(1, 0, false);
+
+  @Test
+  void firstBlockMustTouchBoardCorner() {
+    Board board = new Board();
+    assertTrue(board.canPlace(1, SQUARE, 0, 0));
+    assertTrue(board.canPlace(1, SQUARE, 18, 18));
+    assertFalse(board.canPlace(1, SQUARE, 1, 0));
+    assertFalse(board.canPlace(1, SQUARE, 19, 19));
+  }
+
+  @Test
+  void sameColorMustTouchOnlyByCorner() {
+    Board board = new Board();
+    board.place(1, SQUARE, 0, 0);
+
+    assertTrue(board.canPlace(1, MONO, 2, 2));
+    assertFalse(board.canPlace(1, MONO, 2, 1));
+    assertFalse(board.canPlace(1, MONO, 1, 2));
+    assertFalse(board.canPlace(1, MONO, 1, 1));
+    assertFalse(board.canPlace(1, MONO, 3, 3));
+  }
+
+  @Test
+  void otherColorMayTouchBySide() {
+    Board board = new Board();
+    board.place(1, SQUARE, 0, 0);
+    board.place(2, MONO, 3, 2);
+
+    assertTrue(board.canPlace(1, MONO, 2, 2));
+    assertFalse(board.canPlace(2, SQUARE, 0, 0));
+    assertEquals(1, board.getOwner(1, 1));
+    assertEquals(2, board.getOwner(3, 2));
+    assertEquals(0, board.getOwner(2, 2));
+  }
+
+  @Test
+  void anchorsFollowPlacements() {
+    Board board = new Board();
+    assertEquals(4, board.countAnchors(1));
+
+    board.place(1, SQUARE, 0, 0);
+    // (0,0)の角が消えて(2,2)が増える
+    assertEquals(4, board.countAnchors(1));
+    assertEquals(3, board.countAnchors(2));
+
+    // 他の色が角を埋めると消える
+    board.place(2, MONO, 2, 2);
+    assertEquals(3, board.countAnchors(1));
+
+    // 同じブロックを二度置いても変わらない
+    board.place(2, MONO, 2, 2);
+    assertEquals(Pieces.ALL & ~(1 << 1), board.getRemaining(2));
+  }
+
+  @Test
+  void hashDependsOnPositionNotOrder() {
+    Board a = new Board();
+    a.place(1, SQUARE, 0, 0);
+    a.place(2, MONO, 19, 19);
+
+    Board b = new Board();
+    b.place(2, MONO, 19, 19);
+    assertNotEquals(a.getHash(), b.getHash());
+    b.place(1, SQUARE, 0, 0);
+    assertEquals(a.getHash(), b.getHash());
+    assertEquals(a.getHash(), new Board(a).getHash());
+
+    Board c = new Board();
+    c.place(1, SQUARE, 0, 0);
+    c.place(3, MONO, 19, 19);
+    assertNotEquals(a.getHash(), c.getHash());
+  }
+
+  @Test
+  void rotatedBlockMustFitInBoard() {
+    Board board = new Board();
+    // 逆T(短かい方)を90度回すと縦向きになる
+    Orientation t = Pieces.get(2, 1, false);
+    assertEquals(2, t.getWidth());
+    assertEquals(3, t.getHeight());
+    assertTrue(board.canPlace(1, t, 0, 17));
+    assertFalse(board.canPlace(1, t, 18, 17));
+    assertFalse(board.canPlace(1, t, 19, 17));
+  }
+
+  @Test
+  void restoredBoardMatchesPlayedBoard() {
+    for (Variant variant : Variant.values()) {
+      Board board = new Board(variant);
+      MoveGenerator generator = new MoveGenerator();
+      Random random = new Random(1);
+      for (int turn = 0; turn < 40; turn++) {
+        int player = turn % board.getPlayerNum() + 1;
+        int count = generator.generate(board, player);
+        if (count > 0) {
+          int move = generator.getMove(random.nextInt(count));
+          board.place(player, Move.orientation(move), Move.x(move), Move.y(move));
+        }
+      }
+
+      long[][] own = new long[board.getPlayerNum()][board.getHeight()];
+      int[] remaining = new int[board.getPlayerNum()];
+      for (int p = 0; p < own.length; p++) {
+        board.own(p + 1, own[p]);
+        remaining[p] = board.getRemaining(p + 1);
+      }
+      Board restored = Board.restore(variant, own, remaining);
+
+      assertEquals(board.getHash(), restored.getHash());
+      long[] expected = new long[board.getHeight()];
+      long[] actual = new long[board.getHeight()];
+      for (int player = 1; player <= board.getPlayerNum(); player++) {
+        board.anchors(player, expected);
+        restored.anchors(player, actual);
+        assertArrayEquals(expected, actual);
+        assertEquals(board.countCells(player), restored.countCells(player));
+        assertEquals(generator.generate(board, player), generator.generate(restored, player));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,73 @@
+package com.example.blocks.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class MoveGeneratorTest {
+
+  @Test
+  void matchesBruteForceDuringRandomGame() {
+    Random random = new Random(1);
+    Board board = new Board();
+    MoveGenerator generator = new MoveGenerator();
+
+    for (int turn = 0; turn < 60; turn++) {
+      int player = turn % board.getPlayerNum() + 1;
+      int n = generator.generate(board, player);
+
+      Set<Integer> generated = new HashSet<Integer>();
+      for (int i = 0; i < n; i++) {
+        assertTrue(generated.add(generator.getMove(i)), "duplicated move");
+      }
+      assertEquals(bruteForce(board, player), generated);
+      assertEquals(n > 0, generator.hasMove(board, player));
+
+      if (n > 0) {
+        int move = generator.getMove(random.nextInt(n));
+        board.place(player, Move.orientation(move), Move.x(move), Move.y(move));
+      }
+    }
+  }
+
+  @Test
+  void passWhenNoBlockFits() {
+    Board board = new Board();
+    MoveGenerator generator = new MoveGenerator();
+    // 四隅を他の色で埋めると、まだ置いていないプレイヤーは置けない
+    board.place(2, Pieces.get(1, 0, false), 0, 0);
+    board.place(3, Pieces.get(1, 0, false), 19, 0);
+    board.place(4, Pieces.get(1, 0, false), 0, 19);
+    board.place(2, Pieces.get(0, 0, false), 18, 18);
+
+    assertFalse(generator.hasMove(board, 1));
+    assertEquals(Move.PASS, generator.findFirst(board, 1, Pieces.ALL));
+  }
+
+  private static Set<Integer> bruteForce(Board board, int player) {
+    Set<Integer> moves = new HashSet<Integer>();
+    for (int type = 0; type < Pieces.COUNT; type++) {
+      if ((board.getRemaining(player) & (1 << type)) == 0) {
+        continue;
+      }
+      for (int i = 0; i < Pieces.distinctCount(type); i++) {
+        Orientation orientation = Pieces.distinct(type, i);
+        for (int y = 0; y < board.getHeight(); y++) {
+          for (int x = 0; x < board.getWidth(); x++) {
+            if (board.canPlace(player, orientation, x, y)) {
+              moves.add(Move.of(orientation, x, y));
+            }
+          }
+        }
+      }
+    }
+    return moves;
+  }
+
+}
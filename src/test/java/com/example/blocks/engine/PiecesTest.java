@@ -0,0 +1,46 @@
+package com.example.blocks.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+class PiecesTest {
+
+  @Test
+  void symmetricBlocksAreCollapsed() {
+    assertEquals(21, Pieces.COUNT);
+    assertEquals(1, Pieces.distinctCount(0));  // 四角
+    assertEquals(1, Pieces.distinctCount(1));  // １小竹の
+    assertEquals(2, Pieces.distinctCount(3));  // ２連続
+    assertEquals(4, Pieces.distinctCount(2));  // 逆T(短かい方)
+    assertEquals(1, Pieces.distinctCount(19)); // 十字架
+    assertEquals(8, Pieces.distinctCount(20)); // トンファー
+
+    int total = 0;
+    for (int type = 0; type < Pieces.COUNT; type++) {
+      total += Pieces.distinctCount(type);
+    }
+    assertEquals(91, total);
+  }
+
+  @Test
+  void duplicatedOrientationsShareInstance() {
+    assertSame(Pieces.get(0, 0, false), Pieces.get(0, 3, true));
+    assertSame(Pieces.get(3, 0, false), Pieces.get(3, 2, false));
+    assertSame(Pieces.get(2, 1, false), Pieces.get(2, 5, false));
+  }
+
+  @Test
+  void rotationMatchesPreviousCalculation() {
+    // 逆T(短かい方) {1,0},{0,1},{1,1},{2,1} を90度回すと、右に出っ張った縦向きになる
+    int[][] cells = Pieces.get(2, 1, false).getCells();
+    int[][] expected = { { 0, 0 }, { 0, 1 }, { 1, 1 }, { 0, 2 } };
+    assertEquals(expected.length, cells.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i][0], cells[i][0]);
+      assertEquals(expected[i][1], cells[i][1]);
+    }
+  }
+
+}
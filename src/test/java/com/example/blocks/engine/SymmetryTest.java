@@ -0,0 +1,33 @@
+package com.example.blocks.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class SymmetryTest {
+
+  @Test
+  void transformedMovesGiveTransformedBoard() {
+    Random random = new Random(3);
+    MoveGenerator generator = new MoveGenerator();
+    for (int symmetry = 0; symmetry < Symmetry.COUNT; symmetry++) {
+      Board board = new Board();
+      Board moved = new Board();
+      for (int turn = 0; turn < 12; turn++) {
+        int player = turn % board.getPlayerNum() + 1;
+        int n = generator.generate(board, player);
+        int move = generator.getMove(random.nextInt(n));
+        board.place(player, Move.orientation(move), Move.x(move), Move.y(move));
+
+        int m = Symmetry.move(move, symmetry, board);
+        moved.place(player, Move.orientation(m), Move.x(m), Move.y(m));
+        assertEquals(move, Symmetry.move(m, Symmetry.inverse(symmetry), board));
+      }
+      assertEquals(moved.getHash(), Symmetry.hash(board, symmetry));
+      assertEquals(board.getHash(), Symmetry.hash(board, 0));
+    }
+  }
+
+}
@@ -0,0 +1,51 @@
+package com.example.blocks.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class TerritoryTest {
+
+  @Test
+  void incrementalRegionsMatchFreshOnes() {
+    // 盤の種類と乱数を変えて、領域が分断される局面も通す
+    for (Variant variant : Variant.values()) {
+      for (long seed = 1; seed <= 10; seed++) {
+        playAndCompare(variant, seed);
+      }
+    }
+  }
+
+  private void playAndCompare(Variant variant, long seed) {
+    Random random = new Random(seed);
+    MoveGenerator generator = new MoveGenerator();
+    Territory territory = new Territory(new Board(variant), 100);
+    for (int turn = 0; turn < 100; turn++) {
+      Board board = territory.getBoard();
+      int player = turn % board.getPlayerNum() + 1;
+      int n = generator.generate(board, player);
+      territory.apply(player, n == 0 ? Move.PASS : generator.getMove(random.nextInt(n)));
+
+      Territory fresh = new Territory(territory.getBoard(), 0);
+      for (int q = 1; q <= territory.getBoard().getPlayerNum(); q++) {
+        assertEquals(territory.getBoard().countReachable(q), territory.getReachable(q));
+        assertEquals(fresh.getReachable(q), territory.getReachable(q));
+        assertEquals(fresh.getExclusive(q), territory.getExclusive(q));
+      }
+    }
+  }
+
+  @Test
+  void undoRestoresScores() {
+    Territory territory = new Territory(new Board(), 2);
+    int before = territory.score(1);
+    territory.apply(1, Move.of(Pieces.get(0, 0, false), 0, 0));
+    assertEquals(1, territory.getDepth());
+    territory.undo();
+    assertEquals(0, territory.getDepth());
+    assertEquals(before, territory.score(1));
+  }
+
+}
@@ -0,0 +1,60 @@
+package com.example.blocks.engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class VariantTest {
+
+  private static final Orientation MONO = Pieces.get(1, 0, false);
+
+  @Test
+  void duoStartsFromOwnStartCell() {
+    Board board = new Board(Variant.DUO);
+    assertEquals(2, board.getPlayerNum());
+    assertTrue(board.canPlace(1, MONO, 4, 4));
+    assertFalse(board.canPlace(1, MONO, 9, 9));
+    assertFalse(board.canPlace(1, MONO, 0, 0));
+    assertTrue(board.canPlace(2, MONO, 9, 9));
+    assertFalse(board.canPlace(2, MONO, 4, 4));
+  }
+
+  @Test
+  void duoKeepsOnlySymmetriesThatKeepStartCells() {
+    assertArrayEquals(new int[] { 0, Symmetry.TRANSPOSE }, Variant.DUO.getSymmetries());
+    assertEquals(Symmetry.COUNT, Variant.CLASSIC.getSymmetries().length);
+    assertEquals(Symmetry.COUNT, Variant.LARGE.getSymmetries().length);
+  }
+
+  @Test
+  void randomGamesStayOnBoard() {
+    Random random = new Random(5);
+    MoveGenerator generator = new MoveGenerator();
+    for (Variant variant : Variant.values()) {
+      Board board = new Board(variant);
+      int placed = 0;
+      for (int turn = 0, passes = 0; passes < variant.getPlayerNum(); turn++) {
+        int player = turn % variant.getPlayerNum() + 1;
+        int n = generator.generate(board, player);
+        if (n == 0) {
+          passes++;
+          continue;
+        }
+        passes = 0;
+        int move = generator.getMove(random.nextInt(n));
+        Orientation orientation = Move.orientation(move);
+        assertTrue(Move.x(move) + orientation.getWidth() <= variant.getWidth());
+        assertTrue(Move.y(move) + orientation.getHeight() <= variant.getHeight());
+        board.place(player, orientation, Move.x(move), Move.y(move));
+        placed++;
+      }
+      assertTrue(placed > variant.getPlayerNum() * 5, variant + ": " + placed);
+    }
+  }
+
+}
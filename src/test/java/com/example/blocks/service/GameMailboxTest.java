@@ -0,0 +1,90 @@
+package com.example.blocks.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class GameMailboxTest {
+
+  private GameMailbox mailbox;
+
+  @BeforeEach
+  void setUp() {
+    mailbox = new GameMailbox();
+    ReflectionTestUtils.setField(mailbox, "threads", 4);
+    ReflectionTestUtils.setField(mailbox, "batchSize", 3);
+    mailbox.init();
+  }
+
+  @AfterEach
+  void tearDown() {
+    mailbox.shutdown();
+  }
+
+  @Test
+  void runsTasksOfOneGameInOrderOneAtATime() throws Exception {
+    int games = 8;
+    int tasks = 200;
+    List<List<Integer>> done = new ArrayList<List<Integer>>();
+    AtomicInteger[] running = new AtomicInteger[games];
+    AtomicInteger overlaps = new AtomicInteger();
+    CountDownLatch latch = new CountDownLatch(games * tasks);
+    for (int g = 0; g < games; g++) {
+      done.add(new ArrayList<Integer>());
+      running[g] = new AtomicInteger();
+    }
+
+    for (int t = 0; t < tasks; t++) {
+      for (int g = 0; g < games; g++) {
+        int game = g;
+        int task = t;
+        mailbox.submit(game, () -> {
+          if (running[game].incrementAndGet() != 1) {
+            overlaps.incrementAndGet();
+          }
+          done.get(game).add(task);
+          running[game].decrementAndGet();
+          latch.countDown();
+        });
+      }
+    }
+
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    assertEquals(0, overlaps.get());
+    for (int g = 0; g < games; g++) {
+      assertEquals(tasks, done.get(g).size());
+      for (int t = 0; t < tasks; t++) {
+        assertEquals(t, done.get(g).get(t));
+      }
+    }
+  }
+
+  @Test
+  void slowGameDoesNotBlockOthers() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch other = new CountDownLatch(1);
+    mailbox.submit(1, () -> {
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    mailbox.submit(2, other::countDown);
+
+    // ゲーム1が止まっていてもゲーム2は進む
+    assertTrue(other.await(10, TimeUnit.SECONDS));
+    release.countDown();
+  }
+
+}
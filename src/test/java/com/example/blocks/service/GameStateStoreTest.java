@@ -0,0 +1,354 @@
+package com.example.blocks.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+
+import com.example.blocks.engine.Board;
+import com.example.blocks.engine.MoveGenerator;
+import com.example.blocks.engine.Pieces;
+import com.example.blocks.engine.Variant;
+import com.example.blocks.entity.Block;
+import com.example.blocks.entity.Game;
+import com.example.blocks.entity.GameSnapshot;
+import com.example.blocks.entity.Hand;
+import com.example.blocks.entity.Player;
+import com.example.blocks.entity.Record;
+import com.example.blocks.repository.BlockRepository;
+import com.example.blocks.repository.GameRepository;
+import com.example.blocks.repository.GameSnapshotRepository;
+import com.example.blocks.repository.PlayerRepository;
+import com.example.blocks.repository.RecordRepository;
+
+import org.hibernate.Session;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+class GameStateStoreTest {
+
+  private static final int GAME_ID = 1;
+  private static final int SNAPSHOT_EVERY = 3;
+
+  // リポジトリの代わりに、書けた行をここに持つ
+  private Game gameRow;
+  private List<Player> playerRows;
+  private List<Record> records;
+  private List<GameSnapshot> snapshots;
+  private List<Block> blocks;
+  private boolean failWrite;
+  private List<Object> events;
+
+  @BeforeEach
+  void setUp() {
+    gameRow = new Game();
+    gameRow.setId(GAME_ID);
+    gameRow.setNowPlayer(1);
+    gameRow.setCounter(1);
+    gameRow.setVariant(Variant.CLASSIC);
+    playerRows = new ArrayList<Player>();
+    for (int number = 1; number <= Variant.CLASSIC.getPlayerNum(); number++) {
+      Player player = new Player();
+      player.setGameId(GAME_ID);
+      player.setNumber(number);
+      playerRows.add(player);
+    }
+    records = new ArrayList<Record>();
+    snapshots = new ArrayList<GameSnapshot>();
+    blocks = new ArrayList<Block>();
+    events = new ArrayList<Object>();
+  }
+
+  @Test
+  void loadReplaysRecordsAfterLatestSnapshot() throws Exception {
+    GameStateStore store = store();
+    Random random = new Random(1);
+    MoveGenerator generator = new MoveGenerator();
+    boolean fromSnapshot = false;
+    boolean onBoundary = false;
+    for (int turn = 0; turn < 100 && !allPassed(store.get(GAME_ID)); turn++) {
+      play(store, generator, random);
+
+      // 毎手、書けた分だけから読み直した状態が、1手ずつ打ってきた状態と同じになる
+      GameState expected = store.get(GAME_ID);
+      GameState loaded = store().get(GAME_ID);
+      assertSameState(expected, loaded);
+      fromSnapshot |= !snapshots.isEmpty() && countRecordsAfterSnapshot() > 0;
+      onBoundary |= !snapshots.isEmpty() && countRecordsAfterSnapshot() == 0;
+    }
+    assertTrue(fromSnapshot);
+    assertTrue(onBoundary);
+  }
+
+  @Test
+  void loadedStateKeepsSnapshotInterval() throws Exception {
+    GameStateStore store = store();
+    Random random = new Random(2);
+    MoveGenerator generator = new MoveGenerator();
+    for (int turn = 0; turn < SNAPSHOT_EVERY + 1; turn++) {
+      play(store, generator, random);
+    }
+    assertEquals(1, snapshots.size());
+
+    // 読み直したストアで続けても、次のスナップショットは同じ手で取る
+    store = store();
+    for (int turn = 0; turn < SNAPSHOT_EVERY - 1; turn++) {
+      play(store, generator, random);
+    }
+    assertEquals(2, snapshots.size());
+    assertEquals(records.get(2 * SNAPSHOT_EVERY - 1).getNumber(), snapshots.get(1).getNumber());
+    assertSameState(store.get(GAME_ID), store().get(GAME_ID));
+  }
+
+  @Test
+  void loadMigratesGamesWithoutPlayerNumbers() throws Exception {
+    Board board = new Board();
+    MoveGenerator generator = new MoveGenerator();
+    Random random = new Random(3);
+    for (int turn = 0; turn < 8; turn++) {
+      int number = turn % board.getPlayerNum() + 1;
+      List<Hand> hands = generator.generateHands(board, number);
+      Hand hand = hands.get(random.nextInt(hands.size()));
+      board.place(number, Pieces.get(hand.getBlockType(), hand.getAngle(), hand.isFlip()), hand.getX(), hand.getY());
+
+      Block block = new Block();
+      block.setGameId(GAME_ID);
+      block.setPlayer(number);
+      block.setBlockType(hand.getBlockType());
+      block.setX(hand.getX());
+      block.setY(hand.getY());
+      block.setAngle(hand.getAngle());
+      block.setFlip(hand.isFlip());
+      block.setStatus(Block.STATUS_SETTED);
+      blocks.add(block);
+
+      Record record = new Record();
+      record.setGameId(GAME_ID);
+      record.setNumber(turn + 1);
+      record.setBlockType(hand.getBlockType());
+      records.add(record);
+    }
+    gameRow.setCounter(9);
+
+    GameState migrated = store().get(GAME_ID);
+    for (int number = 1; number <= board.getPlayerNum(); number++) {
+      assertArrayEquals(own(board, number), own(migrated.getBoard(), number));
+      assertEquals(board.getRemaining(number), migrated.getBoard().getRemaining(number));
+    }
+    assertEquals(1, snapshots.size());
+    assertEquals(8, snapshots.get(0).getNumber());
+
+    // 以後はスナップショットから読み込む(block テーブルは読まない)
+    blocks.clear();
+    assertArrayEquals(own(board, 1), own(store().get(GAME_ID).getBoard(), 1));
+  }
+
+  @Test
+  void failedCommitRollsBackToWrittenMoves() throws Exception {
+    GameStateStore store = store();
+    Random random = new Random(4);
+    MoveGenerator generator = new MoveGenerator();
+    for (int turn = 0; turn < 5; turn++) {
+      play(store, generator, random);
+    }
+    GameState written = store.get(GAME_ID);
+
+    failWrite = true;
+    assertThrows(IllegalStateException.class, () -> play(store, generator, random));
+    failWrite = false;
+    assertSameState(written, store.get(GAME_ID));
+    assertEquals(written.getCounter() - 1, records.size());
+  }
+
+  @Test
+  void discardDropsUncommittedMoves() throws Exception {
+    GameStateStore store = store();
+    Random random = new Random(5);
+    MoveGenerator generator = new MoveGenerator();
+    for (int turn = 0; turn < 5; turn++) {
+      play(store, generator, random);
+    }
+    GameState written = store.get(GAME_ID);
+
+    GameState state = store.get(GAME_ID);
+    Hand hand = generator.generateHands(state.getBoard(), state.getNowPlayer()).get(0);
+    store.place(GAME_ID, state.getNowPlayer(), hand.getBlockType(), hand.getAngle(), hand.isFlip(), hand.getX(),
+        hand.getY());
+    store.goNextPlayer(GAME_ID);
+    store.discard(GAME_ID);
+    events.clear();
+
+    // 読み直したことを知らせる(CPUの番なら考え直させるため)
+    assertSameState(written, store.get(GAME_ID));
+    assertEquals(1, events.size());
+    assertEquals(GAME_ID, ((GameLoadedEvent) events.get(0)).getGameId());
+    store.get(GAME_ID);
+    assertEquals(1, events.size());
+  }
+
+  /**
+   * 手番の人が置ける手からランダムに1手打つ(置けなければパス)、手番を進めてコミットする
+   */
+  private void play(GameStateStore store, MoveGenerator generator, Random random) {
+    GameState state = store.get(GAME_ID);
+    int number = state.getNowPlayer();
+    if (!state.getPlayer(number).isPass()) {
+      List<Hand> hands = generator.generateHands(state.getBoard(), number);
+      if (hands.isEmpty()) {
+        store.pass(GAME_ID, number);
+      } else {
+        Hand hand = hands.get(random.nextInt(hands.size()));
+        store.place(GAME_ID, number, hand.getBlockType(), hand.getAngle(), hand.isFlip(), hand.getX(), hand.getY());
+      }
+    }
+    store.goNextPlayer(GAME_ID);
+    store.commit(GAME_ID);
+  }
+
+  /**
+   * 書けた行だけを返すリポジトリを持った、新しいストアを作る
+   */
+  private GameStateStore store() throws Exception {
+    GameRepository gameRepository = mock(GameRepository.class);
+    when(gameRepository.findById(GAME_ID)).thenAnswer(invocation -> Optional.of(copy(gameRow)));
+
+    PlayerRepository playerRepository = mock(PlayerRepository.class);
+    when(playerRepository.findByGameId(GAME_ID))
+        .thenAnswer(invocation -> playerRows.stream().map(GameStateStoreTest::copy).collect(Collectors.toList()));
+
+    BlockRepository blockRepository = mock(BlockRepository.class);
+    when(blockRepository.findByGameIdAndStatus(GAME_ID, Block.STATUS_SETTED))
+        .thenAnswer(invocation -> new ArrayList<Block>(blocks));
+
+    RecordRepository recordRepository = mock(RecordRepository.class);
+    when(recordRepository.findByGameIdAndNumberGreaterThanOrderByNumberAsc(any(), anyInt()))
+        .thenAnswer(invocation -> records.stream()
+            .filter(record -> record.getNumber() > (int) invocation.getArgument(1))
+            .collect(Collectors.toList()));
+
+    GameSnapshotRepository gameSnapshotRepository = mock(GameSnapshotRepository.class);
+    when(gameSnapshotRepository.findFirstByGameIdOrderByNumberDesc(GAME_ID))
+        .thenAnswer(invocation -> snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1));
+    when(gameSnapshotRepository.save(any())).thenAnswer(invocation -> {
+      snapshots.add(invocation.getArgument(0));
+      return invocation.getArgument(0);
+    });
+
+    EntityManager entityManager = mock(EntityManager.class);
+    Session session = mock(Session.class);
+    when(entityManager.unwrap(Session.class)).thenReturn(session);
+    doAnswer(invocation -> {
+      Object entity = invocation.getArgument(0);
+      if (entity instanceof Record) {
+        records.add((Record) entity);
+      } else {
+        snapshots.add((GameSnapshot) entity);
+      }
+      return null;
+    }).when(entityManager).persist(any());
+    doAnswer(invocation -> {
+      Object entity = invocation.getArgument(0);
+      if (entity instanceof Game) {
+        gameRow = copy((Game) entity);
+      } else {
+        Player player = (Player) entity;
+        playerRows.set(player.getNumber() - 1, copy(player));
+      }
+      return null;
+    }).when(session).update(any());
+
+    TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+    doAnswer(invocation -> {
+      if (failWrite) {
+        throw new IllegalStateException("write failed");
+      }
+      Consumer<TransactionStatus> action = invocation.getArgument(0);
+      action.accept(null);
+      return null;
+    }).when(transactionTemplate).executeWithoutResult(any());
+
+    GameStateStore store = new GameStateStore();
+    ReflectionTestUtils.setField(store, "gameRepository", gameRepository);
+    ReflectionTestUtils.setField(store, "playerRepository", playerRepository);
+    ReflectionTestUtils.setField(store, "blockRepository", blockRepository);
+    ReflectionTestUtils.setField(store, "recordRepository", recordRepository);
+    ReflectionTestUtils.setField(store, "gameSnapshotRepository", gameSnapshotRepository);
+    ReflectionTestUtils.setField(store, "transactionTemplate", transactionTemplate);
+    ReflectionTestUtils.setField(store, "entityManager", entityManager);
+    ReflectionTestUtils.setField(store, "eventPublisher", (ApplicationEventPublisher) events::add);
+    ReflectionTestUtils.setField(store, "maxGames", 10L);
+    ReflectionTestUtils.setField(store, "idleMinutes", 30L);
+    ReflectionTestUtils.setField(store, "snapshotEvery", SNAPSHOT_EVERY);
+    ReflectionTestUtils.setField(store, "persistenceMode", "sync");
+    store.init();
+    return store;
+  }
+
+  private int countRecordsAfterSnapshot() {
+    int last = snapshots.isEmpty() ? -1 : snapshots.get(snapshots.size() - 1).getNumber();
+    return (int) records.stream().filter(record -> record.getNumber() > last).count();
+  }
+
+  private static boolean allPassed(GameState state) {
+    return state.getPlayers().stream().allMatch(Player::isPass);
+  }
+
+  private static void assertSameState(GameState expected, GameState actual) {
+    assertEquals(expected.getCounter(), actual.getCounter());
+    assertEquals(expected.getNowPlayer(), actual.getNowPlayer());
+    for (int number = 1; number <= expected.getBoard().getPlayerNum(); number++) {
+      assertArrayEquals(own(expected.getBoard(), number), own(actual.getBoard(), number));
+      assertEquals(expected.getBoard().getRemaining(number), actual.getBoard().getRemaining(number));
+      Player player = actual.getPlayer(number);
+      assertEquals(expected.getPlayer(number).getRemaining(), player.getRemaining());
+      assertEquals(expected.getPlayer(number).getZanBlockCount(), player.getZanBlockCount());
+      assertEquals(expected.getPlayer(number).getPoint(), player.getPoint());
+      assertEquals(expected.getPlayer(number).isPass(), player.isPass());
+    }
+  }
+
+  private static long[] own(Board board, int player) {
+    long[] rows = new long[board.getHeight()];
+    board.own(player, rows);
+    return rows;
+  }
+
+  private static Game copy(Game game) {
+    Game copy = new Game();
+    copy.setId(game.getId());
+    copy.setNowPlayer(game.getNowPlayer());
+    copy.setCounter(game.getCounter());
+    copy.setVariant(game.getVariant());
+    return copy;
+  }
+
+  private static Player copy(Player player) {
+    Player copy = new Player();
+    copy.setGameId(player.getGameId());
+    copy.setNumber(player.getNumber());
+    copy.setRemaining(player.getRemaining());
+    copy.setZanBlockCount(player.getZanBlockCount());
+    copy.setPoint(player.getPoint());
+    copy.setPass(player.isPass());
+    return copy;
+  }
+
+}
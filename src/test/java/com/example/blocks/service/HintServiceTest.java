@@ -0,0 +1,102 @@
+package com.example.blocks.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.blocks.cpu.ParanoidCpuStrategy;
+import com.example.blocks.engine.Move;
+import com.example.blocks.engine.Pieces;
+import com.example.blocks.engine.Variant;
+import com.example.blocks.entity.Game;
+import com.example.blocks.entity.HintInfo;
+import com.example.blocks.entity.Player;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class HintServiceTest {
+
+  private HintService hintService;
+  private ParanoidCpuStrategy paranoid;
+
+  @BeforeEach
+  void setUp() {
+    paranoid = mock(ParanoidCpuStrategy.class);
+    hintService = new HintService();
+    ReflectionTestUtils.setField(hintService, "paranoidCpuStrategy", paranoid);
+    ReflectionTestUtils.setField(hintService, "defaultBudgetMs", 100L);
+    ReflectionTestUtils.setField(hintService, "maxBudgetMs", 1000L);
+    ReflectionTestUtils.setField(hintService, "maxSize", 100L);
+    hintService.init();
+  }
+
+  @Test
+  void waiterSearchesAgainWhenTheSearchItWaitedForFailed() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger calls = new AtomicInteger();
+    when(paranoid.analyze(any(), anyInt(), anyLong(), any(), any())).thenAnswer(invocation -> {
+      if (calls.incrementAndGet() == 1) {
+        started.countDown();
+        release.await(10, TimeUnit.SECONDS);
+        throw new IllegalStateException("search failed");
+      }
+      int[] moves = invocation.getArgument(3);
+      moves[0] = Move.of(Pieces.get(16, 0, true), 0, 0);
+      return 1;
+    });
+
+    GameState state = state();
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<HintInfo> failing = executor.submit(() -> hintService.get(state, 3, 0));
+      assertTrue(started.await(10, TimeUnit.SECONDS));
+      Future<HintInfo> waiting = executor.submit(() -> hintService.get(state, 3, 0));
+      // 2つ目が探索中の結果を待ち始めてから失敗させる
+      Thread.sleep(100);
+      release.countDown();
+
+      assertThrows(Exception.class, () -> failing.get(10, TimeUnit.SECONDS));
+      HintInfo info = waiting.get(10, TimeUnit.SECONDS);
+      assertEquals(1, info.getHints().size());
+      assertEquals(16, info.getHints().get(0).getBlockType());
+    } finally {
+      executor.shutdownNow();
+    }
+    verify(paranoid, times(2)).analyze(any(), anyInt(), anyLong(), any(), any());
+  }
+
+  private static GameState state() {
+    Game game = new Game();
+    game.setId(1);
+    game.setNowPlayer(1);
+    game.setCounter(1);
+    game.setVariant(Variant.CLASSIC);
+    List<Player> players = new ArrayList<Player>();
+    for (int number = 1; number <= Variant.CLASSIC.getPlayerNum(); number++) {
+      Player player = new Player();
+      player.setNumber(number);
+      players.add(player);
+    }
+    return new GameState(game, players);
+  }
+
+}
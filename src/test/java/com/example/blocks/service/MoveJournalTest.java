@@ -0,0 +1,201 @@
+package com.example.blocks.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.example.blocks.entity.Game;
+import com.example.blocks.entity.Record;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MoveJournalTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void flushesEntriesAndEmptiesTheFile() throws Exception {
+    Path path = dir.resolve("moves.journal");
+    List<Object> written = Collections.synchronizedList(new ArrayList<Object>());
+    MoveJournal journal = new MoveJournal(path, 10, 100, 1 << 20, (inserts, updates) -> {
+      written.addAll(inserts);
+      written.addAll(updates);
+    });
+    assertEquals(0, journal.recover((inserts, updates) -> {
+    }));
+
+    int[] flushed = new int[1];
+    for (int i = 0; i < 10; i++) {
+      journal.append(Arrays.asList(record(1, i)), Arrays.asList(game(1, i)), () -> flushed[0]++);
+    }
+    assertTrue(journal.sync(10_000));
+    journal.close(1000);
+
+    assertEquals(10, flushed[0]);
+    assertEquals(10, written.stream().filter(entity -> entity instanceof Record).count());
+    Object last = written.get(written.size() - 1);
+    assertEquals(9, ((Game) last).getCounter());
+    assertEquals(0, Files.size(path));
+  }
+
+  @Test
+  void recoversEntriesThatWereNotFlushed() throws Exception {
+    Path path = dir.resolve("moves.journal");
+    MoveJournal journal = new MoveJournal(path, 10, 100, 1 << 20, (inserts, updates) -> {
+      throw new IllegalStateException("database is down");
+    });
+    journal.recover((inserts, updates) -> {
+    });
+    journal.append(Arrays.asList(record(1, 1)), Arrays.asList(game(1, 2)), null);
+    journal.append(Arrays.asList(record(1, 2)), Arrays.asList(game(1, 3)), null);
+    journal.close(300);
+    // 書いている途中で落ちた行
+    Files.write(path, "{\"inserts\":[{\"type\":\"Rec".getBytes(), StandardOpenOption.APPEND);
+
+    List<Object> recoveredInserts = new ArrayList<Object>();
+    List<Object> recoveredUpdates = new ArrayList<Object>();
+    MoveJournal next = new MoveJournal(path, 10, 100, 1 << 20, (inserts, updates) -> {
+    });
+    assertEquals(2, next.recover((inserts, updates) -> {
+      recoveredInserts.addAll(inserts);
+      recoveredUpdates.addAll(updates);
+    }));
+    next.close(1000);
+
+    assertEquals(2, recoveredInserts.size());
+    Record record = (Record) recoveredInserts.get(1);
+    assertEquals(2, record.getNumber());
+    assertEquals(16, record.getBlockType());
+    assertTrue(record.isFlip());
+    assertEquals(1, recoveredUpdates.size());
+    assertEquals(3, ((Game) recoveredUpdates.get(0)).getCounter());
+    assertEquals(0, Files.size(path));
+  }
+
+  @Test
+  void deletesFlushedSegmentsWhileAppending() throws Exception {
+    Path path = dir.resolve("moves.journal");
+    CountDownLatch releaseHead = new CountDownLatch(1);
+    CountDownLatch releaseTail = new CountDownLatch(1);
+    MoveJournal journal = new MoveJournal(path, 10, 5, 1000, (inserts, updates) -> {
+      try {
+        // 最初は全て、そのあとも最後の1件(number >= 1000)はDBに書けないままにする
+        boolean tail = inserts.stream().anyMatch(entity -> ((Record) entity).getNumber() >= 1000);
+        (tail ? releaseTail : releaseHead).await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    journal.recover((inserts, updates) -> {
+    });
+
+    // 1件ずつファイルに書けるのを待って、最後の1件とは別のセグメントにする
+    for (int i = 0; i < 50; i++) {
+      long before = size(journal, path);
+      journal.append(Arrays.asList(record(1, i)), Arrays.asList(game(1, i)), null);
+      waitFor(() -> size(journal, path) > before);
+    }
+    assertTrue(journal.segments().size() > 1);
+    long peak = size(journal, path);
+
+    journal.append(Arrays.asList(record(1, 1000)), Arrays.asList(game(1, 1000)), null);
+    releaseHead.countDown();
+    // 全てはDBに書けていなくても、書けた分のセグメントは消える
+    waitFor(() -> size(journal, path) < peak / 4);
+    assertFalse(journal.sync(0));
+
+    releaseTail.countDown();
+    assertTrue(journal.sync(10_000));
+    journal.close(1000);
+    assertTrue(journal.segments().isEmpty());
+    assertEquals(0, Files.size(path));
+  }
+
+  @Test
+  void recoversSegmentsInOrder() throws Exception {
+    Path path = dir.resolve("moves.journal");
+    MoveJournal journal = new MoveJournal(path, 10, 100, 100, (inserts, updates) -> {
+      throw new IllegalStateException("database is down");
+    });
+    journal.recover((inserts, updates) -> {
+    });
+    for (int i = 1; i <= 5; i++) {
+      journal.append(Arrays.asList(record(1, i)), Arrays.asList(game(1, i + 1)), null);
+      int segments = i;
+      waitFor(() -> journal.segments().size() == segments);
+    }
+    journal.close(300);
+
+    List<Object> recoveredInserts = new ArrayList<Object>();
+    List<Object> recoveredUpdates = new ArrayList<Object>();
+    MoveJournal next = new MoveJournal(path, 10, 100, 100, (inserts, updates) -> {
+    });
+    assertEquals(5, next.recover((inserts, updates) -> {
+      recoveredInserts.addAll(inserts);
+      recoveredUpdates.addAll(updates);
+    }));
+    next.close(1000);
+
+    for (int i = 0; i < 5; i++) {
+      assertEquals(i + 1, ((Record) recoveredInserts.get(i)).getNumber());
+    }
+    assertEquals(6, ((Game) recoveredUpdates.get(0)).getCounter());
+    assertTrue(next.segments().isEmpty());
+  }
+
+  interface Condition {
+    boolean test() throws IOException;
+  }
+
+  private static void waitFor(Condition condition) throws Exception {
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (!condition.test()) {
+      assertTrue(System.currentTimeMillis() < deadline, "timed out");
+      Thread.sleep(10);
+    }
+  }
+
+  private static long size(MoveJournal journal, Path path) throws IOException {
+    long size = Files.size(path);
+    for (Path segment : journal.segments().values()) {
+      size += Files.size(segment);
+    }
+    return size;
+  }
+
+  private static Record record(int gameId, int number) {
+    Record record = new Record();
+    record.setGameId(gameId);
+    record.setNumber(number);
+    record.setPlayer(1);
+    record.setBlockType(16);
+    record.setX(0);
+    record.setY(0);
+    record.setAngle(0);
+    record.setFlip(true);
+    return record;
+  }
+
+  private static Game game(int id, int counter) {
+    Game game = new Game();
+    game.setId(id);
+    game.setNowPlayer(1);
+    game.setCounter(counter);
+    return game;
+  }
+
+}
@@ -0,0 +1,104 @@
+package com.example.blocks.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.example.blocks.engine.Pieces;
+import com.example.blocks.engine.Variant;
+import com.example.blocks.entity.Game;
+import com.example.blocks.entity.Message;
+import com.example.blocks.entity.MoveError;
+import com.example.blocks.entity.Player;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class MoveValidatorTest {
+
+  private static final Principal ADMIN = () -> "admin";
+
+  private MoveValidator moveValidator;
+  private GameState state;
+
+  @BeforeEach
+  void setUp() {
+    LegalMoveCache legalMoveCache = new LegalMoveCache();
+    ReflectionTestUtils.setField(legalMoveCache, "maxSize", 100L);
+    legalMoveCache.init();
+    moveValidator = new MoveValidator();
+    ReflectionTestUtils.setField(moveValidator, "legalMoveCache", legalMoveCache);
+    state = state();
+  }
+
+  @Test
+  void acceptsLegalMove() {
+    assertNull(moveValidator.validate(state, move(16, 0, 0), ADMIN));
+  }
+
+  @Test
+  void rejectsOtherPlayer() {
+    assertEquals(MoveError.Reason.NOT_YOUR_TURN, moveValidator.validate(state, move(16, 0, 0), () -> "guest"));
+    assertEquals(MoveError.Reason.NOT_YOUR_TURN, moveValidator.validate(state, move(16, 0, 0), null));
+  }
+
+  @Test
+  void rejectsPlayerWhoPassed() {
+    state.getPlayer(1).setPass(true);
+    assertEquals(MoveError.Reason.NOT_YOUR_TURN, moveValidator.validate(state, move(16, 0, 0), ADMIN));
+  }
+
+  @Test
+  void rejectsPassWhileMovesRemain() {
+    Message message = move(0, 0, 0);
+    message.setPass(true);
+    assertEquals(MoveError.Reason.ILLEGAL_PASS, moveValidator.validate(state, message, ADMIN));
+  }
+
+  @Test
+  void rejectsUnknownOrUsedBlock() {
+    assertEquals(MoveError.Reason.BLOCK_NOT_FOUND, moveValidator.validate(state, move(-1, 0, 0), ADMIN));
+    assertEquals(MoveError.Reason.BLOCK_NOT_FOUND, moveValidator.validate(state, move(Pieces.COUNT, 0, 0), ADMIN));
+
+    state.getBoard().place(1, Pieces.get(16, 0, true), 0, 0);
+    assertEquals(MoveError.Reason.BLOCK_NOT_FOUND, moveValidator.validate(state, move(16, 5, 5), ADMIN));
+  }
+
+  @Test
+  void rejectsIllegalPlacement() {
+    // 最初の手は角にかからないと置けない
+    assertEquals(MoveError.Reason.ILLEGAL_PLACEMENT, moveValidator.validate(state, move(16, 5, 5), ADMIN));
+  }
+
+  private static Message move(int selectBlock, int x, int y) {
+    Message message = new Message();
+    message.setId(1);
+    message.setSelectBlock(selectBlock);
+    message.setX(x);
+    message.setY(y);
+    message.setAngle(0);
+    message.setFlip(true);
+    return message;
+  }
+
+  private static GameState state() {
+    Game game = new Game();
+    game.setId(1);
+    game.setNowPlayer(1);
+    game.setCounter(1);
+    game.setVariant(Variant.CLASSIC);
+    List<Player> players = new ArrayList<Player>();
+    for (int number = 1; number <= Variant.CLASSIC.getPlayerNum(); number++) {
+      Player player = new Player();
+      player.setNumber(number);
+      players.add(player);
+    }
+    players.get(0).setAccountName("admin");
+    return new GameState(game, players);
+  }
+
+}
@@ -0,0 +1,31 @@
+package com.example.blocks.sim;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class RatingsTest {
+
+  @Test
+  void strongerEngineGetsHigherRating() {
+    Ratings ratings = new Ratings(2);
+    // 1番が4局中3局勝つ
+    for (int game = 0; game < 40; game++) {
+      boolean win = game % 4 != 0;
+      ratings.add(new int[] { 0, 1, 0, 1 }, win ? new int[] { 60, 80, 50, 70 } : new int[] { 80, 60, 70, 50 });
+    }
+
+    double[] elo = ratings.elo();
+    assertEquals(0, elo[0], 1e-9);
+    // 勝率 3/4 はおよそ +190
+    assertEquals(190, elo[1], 15);
+    assertEquals(0.75, ratings.scoreRate(1, 0), 1e-9);
+
+    double[][] intervals = ratings.confidenceIntervals(0.95, 200, new Random(1));
+    assertTrue(intervals[1][0] > 0 && intervals[1][0] <= elo[1] && elo[1] <= intervals[1][1]);
+  }
+
+}